@@ -0,0 +1,163 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts one image in horizontal bands instead of decoding it whole, for
+ * images too large to keep in memory next to their squished copy. Each band
+ * is decoded, squished and handed on before the next band is read, so the
+ * original is never in memory at once. Only transforms which keep every row
+ * to itself, squishing and cropping columns, can be applied band by band,
+ * see {@link TransformChain.Mapping#isRowLocal}.
+ *
+ * PNG files are decoded row by row by {@link PngBandReader}. Other formats are
+ * read through the reader's source region, which decodes the image from its
+ * start up to each band, so they are read in at most {@link #MAX_REGION_BANDS}
+ * bands. PNG results are compressed row by row by {@link PngRowWriter}; for
+ * other formats the squished image is assembled from the bands and encoded
+ * whole, the ImageIO writers only take complete images.
+ */
+final class BandedConversion implements Closeable {
+    /** pixel memory of one decoded band */
+    static final long BAND_BYTES = 4L << 20;
+    /** bands read through a source region, each one decodes the image up to it */
+    private static final int MAX_REGION_BANDS = 8;
+
+    private final ImageProbe header;
+    private final PngBandReader png;
+    private final BufferedImage band;
+    private final String formatName;
+    private final TransformChain.Mapping mapping;
+    private final int newWidth;
+    private final boolean streamOutput;
+    /** rows per band */
+    final int bandRows;
+
+    private BandedConversion(ImageProbe header, PngBandReader png, BufferedImage band, String formatName,
+            TransformChain.Mapping mapping) {
+        this.header = header;
+        this.png = png;
+        this.band = band;
+        this.formatName = formatName;
+        this.mapping = mapping;
+        this.newWidth = mapping.scaledWidth;
+        this.bandRows = band.getHeight();
+        this.streamOutput = formatName.equalsIgnoreCase("png") && ParallelPngWriter.supports(band);
+    }
+
+    /**
+     * Prepares the conversion of an image whose header has been read.
+     * @param file the image file
+     * @param header its open header, used for source region reads
+     * @param formatName format of the converted file
+     * @param mapping the transforms for the image, which must be row local
+     * @return the conversion, or null if the image's layout cannot be converted
+     *  in bands and has to be decoded whole
+     * @throws IOException if the file cannot be read
+     */
+    static BandedConversion open(File file, ImageProbe header, String formatName, TransformChain.Mapping mapping)
+            throws IOException {
+        PngBandReader png = null;
+        if (header.formatName.equalsIgnoreCase("png")) {
+            // the PNG reader inflates the whole image for every source region
+            png = PngBandReader.open(file);
+            if (png == null) {
+                return null;
+            }
+        }
+        try {
+            long bytesPerPixel = (png != null) ? png.channels : header.decodedBytesPerPixel();
+            long rows = BAND_BYTES / Math.max(1, bytesPerPixel * header.width);
+            if (png == null) {
+                rows = Math.max(rows, (header.height + MAX_REGION_BANDS - 1) / MAX_REGION_BANDS);
+            }
+            int bandRows = (int) Math.max(1, Math.min(header.height, rows));
+            BufferedImage band = (png != null) ? png.createBand(bandRows) : header.createBand(bandRows);
+            if (!HorizontalResampler.supports(band)) {
+                if (png != null) {
+                    png.close();
+                }
+                return null;
+            }
+            return new BandedConversion(header, png, band, formatName, mapping);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (png != null) {
+                png.close();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return estimated pixel memory held while converting: the bands, and
+     *  the squished image when it has to be encoded whole
+     */
+    long peakBytes() {
+        long bytesPerPixel = ImageBufferPool.sizeOf(band) / ((long) band.getWidth() * bandRows);
+        long squishedRows = streamOutput ? bandRows : header.height;
+        return ImageBufferPool.sizeOf(band) + bytesPerPixel * newWidth * squishedRows;
+    }
+
+    /**
+     * Decodes, squishes and encodes the image band by band.
+     * @param resampler scales the mapping's columns of each band to the new width
+     * @param settings encoder settings of the batch
+     * @param codecs source of the writer for whole image encoding
+     * @return the encoded file contents
+     * @throws IOException if the image cannot be decoded or encoded
+     */
+    byte[] convert(HorizontalResampler resampler, EncoderSettings settings, ImageCodecCache codecs)
+            throws IOException {
+        int height = header.height;
+        if (!streamOutput) {
+            BufferedImage squished = HorizontalResampler.createDestination(band, newWidth, height);
+            for (int firstRow = 0; firstRow < height; ) {
+                int rows = readBand(firstRow);
+                resampler.resizeInto(bandColumns(rows), squished.getSubimage(0, firstRow, newWidth, rows));
+                firstRow += rows;
+            }
+            return settings.encode(squished, formatName, codecs);
+        }
+        BufferedImage squishedBand = HorizontalResampler.createDestination(band, newWidth);
+        try (PngRowWriter writer = new PngRowWriter(newWidth, height, band.getColorModel(),
+                settings.pngCompressionLevel)) {
+            for (int firstRow = 0; firstRow < height; ) {
+                int rows = readBand(firstRow);
+                resampler.resizeInto(bandColumns(rows), squishedBand.getSubimage(0, 0, newWidth, rows));
+                writer.writeRows(squishedBand.getRaster(), rows);
+                firstRow += rows;
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * @param rows rows decoded into the band
+     * @return the part of the band the mapping reads from
+     */
+    private BufferedImage bandColumns(int rows) {
+        return TransformRenderer.cropColumns(band.getSubimage(0, 0, band.getWidth(), rows), mapping);
+    }
+
+    /**
+     * @return the number of rows decoded into the band
+     */
+    private int readBand(int firstRow) throws IOException {
+        int rows = (png != null) ? png.readRows(band) : header.readRows(firstRow, band);
+        if (rows <= 0) {
+            throw new IOException("Image data ends at row " + firstRow);
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (png != null) {
+            png.close();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package nmsvrscreenshotfix;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Progress counters of the running batch. The controller updates them as
+ * files finish and the progress bar is drawn from them, so the UI and the
+ * JMX view always agree. Counters keep their values after a batch until the
+ * next one starts.
+ */
+final class BatchMetrics implements BatchMetricsMXBean {
+    static final String OBJECT_NAME = "nmsvrscreenshotfix:type=BatchMetrics";
+    /** throughput is measured over this many most recent seconds */
+    private static final int WINDOW_SECONDS = 10;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final AtomicInteger totalFiles = new AtomicInteger();
+    /** changed by every new total, so a count finishing late cannot replace a newer one */
+    private int totalGeneration;
+    private final AtomicInteger filesFinished = new AtomicInteger();
+    private final AtomicIntegerArray outcomes = new AtomicIntegerArray(ConversionJob.Status.values().length);
+    private final AtomicLong inFlightImageBytes = new AtomicLong();
+    private volatile boolean executing;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos = startNanos;
+    private volatile ConversionPipeline pipeline;
+    private volatile ImageBufferPool bufferPool;
+    private volatile MemoryBudget memoryBudget;
+    private volatile int filesSeenAtEnd;
+
+    // files finished per second of the batch, a ring of the last few seconds
+    private final long[] windowSecond = new long[WINDOW_SECONDS];
+    private final int[] windowCount = new int[WINDOW_SECONDS];
+
+    /**
+     * Publishes the metrics on the platform MBean server. Failing to do so
+     * only costs the JMX view, conversion works either way.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        }
+        catch (JMException | SecurityException ex) {
+            System.err.println(">> Could not publish batch metrics over JMX: " + ex);
+        }
+    }
+
+    /**
+     * @param total candidate images in the batch
+     */
+    synchronized void setTotalFiles(int total) {
+        totalGeneration++;
+        totalFiles.set(total);
+    }
+
+    /**
+     * Marks the total as unknown until {@link #setCountedTotal} sets it.
+     * @return the generation the counted total must be given with
+     */
+    synchronized int setTotalUnknown() {
+        totalGeneration++;
+        totalFiles.set(-1);
+        return totalGeneration;
+    }
+
+    /**
+     * Sets the total unless it was set in the meantime, e.g. by a finished
+     * batch or by the next one.
+     * @param generation the generation returned by {@link #setTotalUnknown}
+     * @param total candidate images in the batch
+     */
+    synchronized void setCountedTotal(int generation, int total) {
+        if (generation == totalGeneration) {
+            totalFiles.set(total);
+        }
+    }
+
+    /**
+     * Resets the counters for a new batch.
+     * @param pipeline the batch's pipeline, for queue depths
+     * @param bufferPool the batch's buffer pool, for idle memory
+     * @param memoryBudget the batch's decode admission, for reserved memory
+     */
+    synchronized void startBatch(ConversionPipeline pipeline, ImageBufferPool bufferPool, MemoryBudget memoryBudget) {
+        filesFinished.set(0);
+        for (int index = 0; index < outcomes.length(); index++) {
+            outcomes.set(index, 0);
+        }
+        inFlightImageBytes.set(0);
+        Arrays.fill(windowCount, 0);
+        Arrays.fill(windowSecond, -1);
+        this.pipeline = pipeline;
+        this.bufferPool = bufferPool;
+        this.memoryBudget = memoryBudget;
+        startNanos = System.nanoTime();
+        executing = true;
+    }
+
+    /**
+     * Stops the clock, the counters stay readable. The pipeline and the
+     * buffer pool are let go so their memory can be collected.
+     */
+    void endBatch() {
+        endNanos = System.nanoTime();
+        ConversionPipeline finished = pipeline;
+        filesSeenAtEnd = (finished == null) ? 0 : finished.getFedCount();
+        pipeline = null;
+        bufferPool = null;
+        memoryBudget = null;
+        inFlightImageBytes.set(0);
+        executing = false;
+    }
+
+    /**
+     * Counts a file which left the pipeline.
+     * @param status its outcome
+     */
+    synchronized void recordFinished(ConversionJob.Status status) {
+        outcomes.incrementAndGet(status.ordinal());
+        filesFinished.incrementAndGet();
+        long second = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+        int slot = (int) (second % WINDOW_SECONDS);
+        if (windowSecond[slot] != second) {
+            windowSecond[slot] = second;
+            windowCount[slot] = 0;
+        }
+        windowCount[slot]++;
+    }
+
+    /**
+     * @param deltaBytes change of pixel memory held by images in the pipeline
+     */
+    void addImageBytes(long deltaBytes) {
+        inFlightImageBytes.addAndGet(deltaBytes);
+    }
+
+    /**
+     * @param status an outcome
+     * @return files of the current or last batch with that outcome
+     */
+    int getOutcomeCount(ConversionJob.Status status) {
+        return outcomes.get(status.ordinal());
+    }
+
+    @Override
+    public boolean isExecuting() {
+        return executing;
+    }
+
+    @Override
+    public int getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    @Override
+    public int getFilesSeen() {
+        ConversionPipeline current = pipeline;
+        return (current == null) ? filesSeenAtEnd : current.getFedCount();
+    }
+
+    @Override
+    public int getFilesFinished() {
+        return filesFinished.get();
+    }
+
+    @Override
+    public int getFilesConverted() {
+        return getOutcomeCount(ConversionJob.Status.CONVERTED);
+    }
+
+    @Override
+    public int getFilesSkipped() {
+        return getOutcomeCount(ConversionJob.Status.SKIPPED) + getOutcomeCount(ConversionJob.Status.UNCHANGED);
+    }
+
+    @Override
+    public int getFilesErrored() {
+        return getOutcomeCount(ConversionJob.Status.READ_ERROR) + getOutcomeCount(ConversionJob.Status.CORRUPT)
+            + getOutcomeCount(ConversionJob.Status.WRITE_ERROR) + getOutcomeCount(ConversionJob.Status.FAILED);
+    }
+
+    @Override
+    public int getProgressPercent() {
+        int total = totalFiles.get();
+        if (total < 0) {
+            return -1;
+        }
+        return (total == 0) ? 100 : Math.min(100, filesFinished.get() * 100 / total);
+    }
+
+    @Override
+    public synchronized double getThroughput() {
+        long elapsed = elapsedNanos();
+        long second = elapsed / NANOS_PER_SECOND;
+        int finished = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            if (windowSecond[slot] >= 0 && second - windowSecond[slot] < WINDOW_SECONDS) {
+                finished += windowCount[slot];
+            }
+        }
+        double span = Math.min(WINDOW_SECONDS, elapsed / 1e9);
+        return (span <= 0) ? 0 : finished / span;
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        int total = totalFiles.get();
+        if (total < 0) {
+            return -1;
+        }
+        if (!executing) {
+            return 0;
+        }
+        double throughput = getThroughput();
+        if (throughput <= 0) {
+            return -1;
+        }
+        return Math.round(Math.max(0, total - filesFinished.get()) / throughput);
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return elapsedNanos() / 1e9;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        ConversionPipeline current = pipeline;
+        return (current == null) ? Collections.<String, Integer>emptyMap() : current.getQueueDepths();
+    }
+
+    @Override
+    public long getImageBufferBytes() {
+        return inFlightImageBytes.get() + getIdleBufferBytes();
+    }
+
+    @Override
+    public long getIdleBufferBytes() {
+        ImageBufferPool pool = bufferPool;
+        return (pool == null) ? 0 : pool.getPooledBytes();
+    }
+
+    @Override
+    public long getReservedImageBytes() {
+        MemoryBudget budget = memoryBudget;
+        return (budget == null) ? 0 : budget.getReservedBytes();
+    }
+
+    @Override
+    public int getDecodesWaitingForMemory() {
+        MemoryBudget budget = memoryBudget;
+        return (budget == null) ? 0 : budget.getWaitingCount();
+    }
+
+    private long elapsedNanos() {
+        return (executing ? System.nanoTime() : endNanos) - startNanos;
+    }
+}
@@ -0,0 +1,85 @@
+package nmsvrscreenshotfix;
+
+import java.util.Map;
+
+/**
+ * Live counters of the running or last batch, published over JMX as
+ * {@value BatchMetrics#OBJECT_NAME} so long batches can be watched with
+ * jconsole or any JMX client instead of the GUI.
+ */
+public interface BatchMetricsMXBean {
+
+    /**
+     * @return true while a batch is converting files
+     */
+    boolean isExecuting();
+
+    /**
+     * @return candidate images in the batch, or -1 while they are still being counted
+     */
+    int getTotalFiles();
+
+    /**
+     * @return files handed to the pipeline so far
+     */
+    int getFilesSeen();
+
+    /**
+     * @return files which have left the pipeline, with any outcome
+     */
+    int getFilesFinished();
+
+    int getFilesConverted();
+
+    /**
+     * @return files left as they are, including ones unchanged since the last run
+     */
+    int getFilesSkipped();
+
+    /**
+     * @return files which could not be read, decoded or written
+     */
+    int getFilesErrored();
+
+    /**
+     * @return the value shown on the progress bar, -1 while the total is unknown
+     */
+    int getProgressPercent();
+
+    /**
+     * @return files finished per second over the last few seconds
+     */
+    double getThroughput();
+
+    /**
+     * @return estimated seconds until the batch finishes, or -1 if unknown
+     */
+    long getEtaSeconds();
+
+    double getElapsedSeconds();
+
+    /**
+     * @return jobs waiting in front of each pipeline stage
+     */
+    Map<String, Integer> getQueueDepths();
+
+    /**
+     * @return pixel memory of images in the pipeline and idle in the buffer pool
+     */
+    long getImageBufferBytes();
+
+    /**
+     * @return pixel memory of idle images in the buffer pool
+     */
+    long getIdleBufferBytes();
+
+    /**
+     * @return estimated pixel memory reserved by images admitted for decoding
+     */
+    long getReservedImageBytes();
+
+    /**
+     * @return decodes waiting for the memory budget
+     */
+    int getDecodesWaitingForMemory();
+}
@@ -0,0 +1,504 @@
+package nmsvrscreenshotfix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Headless batch mode: converts a folder from the command line without creating
+ * any windows, for servers and scheduled jobs. Log output goes to stderr, a one
+ * line JSON summary of the run goes to stdout.
+ *
+ * Usage: NMSVRScreenshotFix --source DIR [--result DIR] [--rename new|original|none]
+ *        [--prefix TEXT | --suffix TEXT] [--workers N] [--full-rescan] [--allow-replace]
+ *        [--recursive] [--scale nearest|bilinear|area] [--buffer-mb N] [--watch [--settle-ms N]]
+ *        [--preset speed|balanced|size] [--png-level 0-9] [--jpeg-quality 1-100] [--progressive|--baseline]
+ *        [--parallel-png|--stock-png] [--on-error skip|fail-fast|retry] [--retries N]
+ *        [--transform LIST] [--rendition SPEC]... [--memory-mb N] [--band-above-mb N] [--dedup] [--dedup-cache DIR] [--dedup-cache-mb N]
+ */
+class CommandLineBatch implements ExecutionView {
+    // Exit codes
+    static final int EXIT_SUCCESS = 0;
+    static final int EXIT_FILE_ERRORS = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_CANCELED = 3;
+    // largest size in megabytes whose byte count fits in a long
+    private static final long MAX_MEGABYTES = Long.MAX_VALUE >> 20;
+
+    private static final String USAGE =
+        "Usage: NMSVRScreenshotFix --source DIR [options]\n"
+        + "  --source DIR          folder of original screenshots (required)\n"
+        + "  --result DIR          folder for converted screenshots (default: source folder)\n"
+        + "  --rename MODE         new: rename converted copy (default), original: rename original,\n"
+        + "                        none: keep the original name\n"
+        + "  --prefix TEXT         add TEXT in front of the file name\n"
+        + "  --suffix TEXT         add TEXT after the file name (default: _fix)\n"
+        + "  --recursive           include subfolders, mirrored in the result folder\n"
+        + "  --scale MODE          resampling: nearest, bilinear or area (default: area)\n"
+        + "  --transform LIST      transforms applied in one pass, separated by commas: squish,\n"
+        + "                        crop-eye:left|right, max:PIXELS, rotate:90|180|270 (default: squish)\n"
+        + "  --rendition SPEC      also write each image as SPEC, repeat for more: full, or settings\n"
+        + "                        separated by commas: suffix:TEXT, max:PIXELS, format:png|jpg,\n"
+        + "                        quality:1-100 (default: full only), e.g. --rendition full\n"
+        + "                        --rendition suffix:_web,max:1920,format:jpg,quality:85\n"
+        + "  --preset PRESET       encoder preset: speed, balanced or size (default: balanced)\n"
+        + "  --png-level N         PNG deflate level, 0 stores uncompressed, 1 fastest, 9 smallest\n"
+        + "  --jpeg-quality N      JPEG quality from 1 to 100\n"
+        + "  --progressive         write progressive JPEGs (--baseline for baseline)\n"
+        + "  --parallel-png        deflate each PNG on every core (--stock-png for the ImageIO writer)\n"
+        + "  --workers N           number of worker threads per stage (default: number of cores)\n"
+        + "  --on-error POLICY     when a file fails: skip (default), fail-fast stops the batch,\n"
+        + "                        retry reads and writes again before skipping\n"
+        + "  --retries N           retries per file with --on-error retry (default: 2)\n"
+        + "  --memory-mb N         memory for images being converted at once, larger images wait\n"
+        + "                        (default: half the heap)\n"
+        + "  --band-above-mb N     convert images needing more memory than this in bands\n"
+        + "                        (default: a quarter of --memory-mb)\n"
+        + "  --buffer-mb N         memory kept for reusing image buffers (default: a quarter of the heap, max 512)\n"
+        + "  --dedup               convert copies of files converted before only once, reusing the\n"
+        + "                        output kept in a store shared by all runs\n"
+        + "  --no-dedup            convert every file, even copies of files converted before (default)\n"
+        + "  --dedup-cache DIR     folder keeping converted files for reuse (default: ~/.nmsvrfix/dedup)\n"
+        + "  --dedup-cache-mb N    size of that folder, least recently used files go first (default: 1024)\n"
+        + "  --full-rescan         process every file, even those unchanged since the last run\n"
+        + "  --allow-replace       allow replacing the originals when not renaming into the source folder\n"
+        + "  --watch               keep running and convert new screenshots as they land\n"
+        + "                        in the source folder, prints one summary per batch\n"
+        + "  --settle-ms N         quiet time before a new file is converted (default: 1000)\n"
+        + "  --help                show this message\n"
+        + "Exit codes: 0 success, 1 some files failed, 2 invalid arguments, 3 canceled";
+
+    private final LogicController controller;
+    private final PrintStream log;
+    private boolean allowReplace = false;
+    private boolean watch = false;
+    private long settleMillis = 1000;
+    private boolean canceled = false;
+    // encoder overrides, applied on top of the preset
+    private Integer pngLevel = null;
+    private Integer jpegQuality = null;
+    private Boolean jpegProgressive = null;
+    private Boolean parallelPng = null;
+    // renditions given so far, separated by semicolons
+    private StringBuilder renditions = null;
+
+    private CommandLineBatch(LogicController controller, PrintStream log) {
+        this.controller = controller;
+        this.log = log;
+    }
+
+    /**
+     * Parses the arguments into the controller settings and runs one batch.
+     * @param args command line arguments
+     * @return the process exit code
+     */
+    static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        PrintStream summaryOut = System.out;
+        // keep stdout machine readable, per file logging goes to stderr
+        System.setOut(System.err);
+
+        LogicController controller = LogicController.getInstance();
+        CommandLineBatch batch = new CommandLineBatch(controller, System.err);
+        controller.myUI = batch;
+
+        String usageError = batch.parseArguments(args);
+        if (usageError != null) {
+            if (!usageError.isEmpty()) {
+                System.err.println("Error: " + usageError);
+            }
+            System.err.println(USAGE);
+            return usageError.isEmpty() ? EXIT_SUCCESS : EXIT_USAGE;
+        }
+        if (!controller.hasValidDirectoryPaths()) {
+            System.err.println("Error: the source and result folders must be existing directories.");
+            return EXIT_USAGE;
+        }
+
+        System.err.println(controller.getCurrentBehaviorString());
+        long startNanos = System.nanoTime();
+        controller.execute();
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+
+        int errors = controller.getOutcomeCount(ConversionJob.Status.READ_ERROR)
+            + controller.getOutcomeCount(ConversionJob.Status.CORRUPT)
+            + controller.getOutcomeCount(ConversionJob.Status.WRITE_ERROR)
+            + controller.getOutcomeCount(ConversionJob.Status.FAILED);
+        boolean stoppedEarly = controller.getErrorReport().isStoppedEarly();
+        String status = stoppedEarly ? "stopped_on_error"
+            : batch.canceled ? "canceled" : (errors > 0 ? "completed_with_errors" : "completed");
+        summaryOut.println(batch.summaryJson(status, elapsedMillis));
+        summaryOut.flush();
+
+        if (stoppedEarly) {
+            return EXIT_FILE_ERRORS;
+        }
+        if (batch.canceled) {
+            return EXIT_CANCELED;
+        }
+        if (batch.watch) {
+            return batch.watchSourceFolder(summaryOut);
+        }
+        return errors > 0 ? EXIT_FILE_ERRORS : EXIT_SUCCESS;
+    }
+    
+    /**
+     * Converts new screenshots as they land until the process is terminated.
+     * @param summaryOut stream receiving one JSON summary per batch
+     * @return the process exit code
+     */
+    private int watchSourceFolder(PrintStream summaryOut) {
+        FolderWatcher watcher = new FolderWatcher(controller, new File(controller.sourcePath),
+            controller.includeSubfolders, new File(controller.resultPath), settleMillis,
+            elapsedMillis -> {
+                summaryOut.println(summaryJson("batch", elapsedMillis));
+                summaryOut.flush();
+            });
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.stop();
+            controller.cancelExecution();
+            try {
+                // let the current batch save its manifest
+                mainThread.join(10_000);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            watcher.run();
+        }
+        catch (IOException ex) {
+            System.err.println("Error: cannot watch the source folder: " + ex.getMessage());
+            return EXIT_USAGE;
+        }
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * Applies the arguments to the controller settings.
+     * @param args command line arguments
+     * @return null if execution should go ahead, an empty string if only help
+     *  was requested, or a description of the invalid argument
+     */
+    private String parseArguments(String[] args) {
+        boolean hasSource = false;
+        boolean hasResult = false;
+        for (int argIndex = 0; argIndex < args.length; argIndex++) {
+            String arg = args[argIndex];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                return "";
+            }
+            if (arg.equals("--allow-replace")) {
+                allowReplace = true;
+                continue;
+            }
+            if (arg.equals("--full-rescan")) {
+                controller.skipUnchangedFiles = false;
+                continue;
+            }
+            if (arg.equals("--dedup") || arg.equals("--no-dedup")) {
+                controller.reuseIdenticalFiles = arg.equals("--dedup");
+                continue;
+            }
+            if (arg.equals("--recursive")) {
+                controller.includeSubfolders = true;
+                continue;
+            }
+            if (arg.equals("--progressive") || arg.equals("--baseline")) {
+                jpegProgressive = arg.equals("--progressive");
+                continue;
+            }
+            if (arg.equals("--parallel-png") || arg.equals("--stock-png")) {
+                parallelPng = arg.equals("--parallel-png");
+                continue;
+            }
+            if (arg.equals("--watch")) {
+                watch = true;
+                continue;
+            }
+            if (argIndex + 1 >= args.length) {
+                return "missing value for " + arg;
+            }
+            String value = args[++argIndex];
+            switch (arg) {
+                case "--source":
+                    controller.sourcePath = value;
+                    hasSource = true;
+                    break;
+                case "--result":
+                    controller.resultPath = value;
+                    hasResult = true;
+                    break;
+                case "--rename":
+                    if (value.equals("new")) {
+                        controller.shouldRename = true;
+                        controller.renameNewFile = true;
+                    } else if (value.equals("original")) {
+                        controller.shouldRename = true;
+                        controller.renameNewFile = false;
+                    } else if (value.equals("none")) {
+                        controller.shouldRename = false;
+                    } else {
+                        return "--rename must be new, original or none";
+                    }
+                    break;
+                case "--prefix":
+                case "--suffix":
+                    if (!controller.isValidTextAddition(value)) {
+                        return "invalid text for " + arg;
+                    }
+                    controller.addTextToFileName = value;
+                    controller.addAsPrefix = arg.equals("--prefix");
+                    break;
+                case "--scale":
+                    if (value.equals("nearest")) {
+                        controller.scaleMode = HorizontalResampler.Mode.NEAREST;
+                    } else if (value.equals("bilinear")) {
+                        controller.scaleMode = HorizontalResampler.Mode.BILINEAR;
+                    } else if (value.equals("area")) {
+                        controller.scaleMode = HorizontalResampler.Mode.AREA_AVERAGE;
+                    } else {
+                        return "--scale must be nearest, bilinear or area";
+                    }
+                    break;
+                case "--transform":
+                    try {
+                        controller.transforms = TransformChain.parse(value);
+                    } catch (IllegalArgumentException ex) {
+                        return "--transform: " + ex.getMessage();
+                    }
+                    break;
+                case "--rendition":
+                    try {
+                        Rendition.parse(value);
+                    } catch (IllegalArgumentException ex) {
+                        return "--rendition: " + ex.getMessage();
+                    }
+                    renditions = (renditions == null) ? new StringBuilder(value) : renditions.append(';').append(value);
+                    break;
+                case "--settle-ms":
+                    try {
+                        settleMillis = Long.parseLong(value);
+                    } catch (NumberFormatException ex) {
+                        return "--settle-ms must be a number";
+                    }
+                    break;
+                case "--preset":
+                    try {
+                        controller.encoderSettings = EncoderSettings.Preset.valueOf(value.toUpperCase(Locale.ROOT)).settings;
+                    } catch (IllegalArgumentException ex) {
+                        return "--preset must be speed, balanced or size";
+                    }
+                    break;
+                case "--png-level":
+                    try {
+                        pngLevel = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        return "--png-level must be a number";
+                    }
+                    if (pngLevel < EncoderSettings.PNG_STORE || pngLevel > EncoderSettings.PNG_MAX_LEVEL) {
+                        return "--png-level must be 0 to 9";
+                    }
+                    break;
+                case "--jpeg-quality":
+                    try {
+                        jpegQuality = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        return "--jpeg-quality must be a number";
+                    }
+                    if (jpegQuality < 1 || jpegQuality > 100) {
+                        return "--jpeg-quality must be 1 to 100";
+                    }
+                    break;
+                case "--on-error":
+                    if (value.equals("skip")) {
+                        controller.errorPolicy = ErrorReport.Policy.SKIP;
+                    } else if (value.equals("fail-fast")) {
+                        controller.errorPolicy = ErrorReport.Policy.FAIL_FAST;
+                    } else if (value.equals("retry")) {
+                        controller.errorPolicy = ErrorReport.Policy.RETRY;
+                    } else {
+                        return "--on-error must be skip, fail-fast or retry";
+                    }
+                    break;
+                case "--retries":
+                    try {
+                        controller.errorRetries = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        return "--retries must be a number";
+                    }
+                    if (controller.errorRetries < 0) {
+                        return "--retries must not be negative";
+                    }
+                    break;
+                case "--memory-mb":
+                    controller.memoryBudgetBytes = parseMegabytes(value);
+                    if (controller.memoryBudgetBytes < 1) {
+                        return "--memory-mb must be a number from 1 to " + MAX_MEGABYTES;
+                    }
+                    break;
+                case "--band-above-mb":
+                    controller.bandThresholdBytes = parseMegabytes(value);
+                    if (controller.bandThresholdBytes < 1) {
+                        return "--band-above-mb must be a number from 1 to " + MAX_MEGABYTES;
+                    }
+                    break;
+                case "--dedup-cache":
+                    controller.dedupCachePath = value;
+                    break;
+                case "--dedup-cache-mb":
+                    controller.dedupCacheBytes = parseMegabytes(value);
+                    if (controller.dedupCacheBytes < 1) {
+                        return "--dedup-cache-mb must be a number from 1 to " + MAX_MEGABYTES;
+                    }
+                    break;
+                case "--buffer-mb":
+                    controller.bufferPoolBytes = parseMegabytes(value);
+                    if (controller.bufferPoolBytes < 0) {
+                        return "--buffer-mb must be a number from 0 to " + MAX_MEGABYTES;
+                    }
+                    break;
+                case "--workers":
+                    try {
+                        controller.workerCount = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        return "--workers must be a number";
+                    }
+                    if (controller.workerCount < 1) {
+                        return "--workers must be at least 1";
+                    }
+                    break;
+                default:
+                    return "unknown argument " + arg;
+            }
+        }
+        if (!hasSource) {
+            return "--source is required";
+        }
+        if (!hasResult) {
+            controller.resultPath = controller.sourcePath;
+        }
+        if (renditions != null) {
+            try {
+                controller.renditions = Rendition.parseList(renditions.toString());
+            } catch (IllegalArgumentException ex) {
+                return "--rendition: " + ex.getMessage();
+            }
+        }
+        EncoderSettings preset = controller.encoderSettings;
+        controller.encoderSettings = new EncoderSettings(
+            (pngLevel != null) ? pngLevel : preset.pngCompressionLevel,
+            (jpegQuality != null) ? jpegQuality / 100f : preset.jpegQuality,
+            (jpegProgressive != null) ? jpegProgressive : preset.jpegProgressive,
+            (parallelPng != null) ? parallelPng : preset.parallelPng);
+        return null;
+    }
+
+    /**
+     * @param value a size in megabytes
+     * @return the size in bytes, or -1 if it is not a number from 0 to {@link #MAX_MEGABYTES}
+     */
+    private static long parseMegabytes(String value) {
+        try {
+            long megabytes = Long.parseLong(value);
+            return (megabytes < 0 || megabytes > MAX_MEGABYTES) ? -1 : megabytes << 20;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param status completed, completed_with_errors, stopped_on_error or canceled
+     * @param elapsedMillis wall clock duration of the batch
+     * @return one line JSON object describing the run
+     */
+    private String summaryJson(String status, long elapsedMillis) {
+        return "{\"status\":\"" + status + "\""
+            + ",\"source\":\"" + jsonEscape(controller.sourcePath) + "\""
+            + ",\"result\":\"" + jsonEscape(controller.resultPath) + "\""
+            + ",\"entries\":" + controller.getTotalFiles()
+            + ",\"converted\":" + controller.getOutcomeCount(ConversionJob.Status.CONVERTED)
+            + ",\"skipped\":" + controller.getOutcomeCount(ConversionJob.Status.SKIPPED)
+            + ",\"unchanged\":" + controller.getOutcomeCount(ConversionJob.Status.UNCHANGED)
+            + ",\"readErrors\":" + controller.getOutcomeCount(ConversionJob.Status.READ_ERROR)
+            + ",\"corrupt\":" + controller.getOutcomeCount(ConversionJob.Status.CORRUPT)
+            + ",\"writeErrors\":" + controller.getOutcomeCount(ConversionJob.Status.WRITE_ERROR)
+            + ",\"failed\":" + controller.getOutcomeCount(ConversionJob.Status.FAILED)
+            + ",\"elapsedMillis\":" + elapsedMillis
+            + ",\"errors\":" + controller.getErrorReport().toJson()
+            + "}";
+    }
+
+    static String jsonEscape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int charIndex = 0; charIndex < text.length(); charIndex++) {
+            char curChar = text.charAt(charIndex);
+            if (curChar == '"' || curChar == '\\') {
+                escaped.append('\\').append(curChar);
+            } else if (curChar < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) curChar));
+            } else {
+                escaped.append(curChar);
+            }
+        }
+        return escaped.toString();
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // ExecutionView: console replacements for the ProgramUI popups
+    /////////////////////////////////////////////////////////////////////
+
+    public void updateProgressBar(int value) {
+        if (value >= 0) {
+            log.println("progress: " + value + "%");
+        }
+    }
+
+    public void toggleUI() {
+        // no interactive elements
+    }
+
+    public void warningReplacingFiles() {
+        if (!allowReplace) {
+            log.println("Error: these settings would replace the original screenshots. "
+                + "Pass --allow-replace to confirm.");
+            controller.cancelExecution();
+        }
+    }
+
+    public void runReport(String report) {
+        // already printed to the log by the controller
+    }
+
+    public void cancelPopup(int converted) {
+        canceled = true;
+        log.println("Converted " + converted + " files before canceling.");
+    }
+
+    public void completePopup(int converted) {
+        log.println(converted + " images were converted successfully.");
+    }
+
+    public void errorReport(ErrorReport errors) {
+        log.print(errors.toText());
+    }
+
+    public void warningEmptyText() {
+        log.println("The text to be added cannot be empty.");
+    }
+
+    public void warningExceededTextLimit() {
+        log.println("Added text cannot exceed " + controller.MAX_ADD_TEXT_LENGTH + " characters.");
+    }
+
+    public void warningInvalidText(char invalidChar) {
+        log.println("Text must contain only alphanumeric characters, '_', and '-'. Invalid character: '" + invalidChar + "'.");
+    }
+
+    public void warningInvalidTransform(String problem) {
+        log.println("Invalid transforms: " + problem + ".");
+    }
+}
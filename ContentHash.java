@@ -0,0 +1,155 @@
+package nmsvrscreenshotfix;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * XXH64 of a file's bytes, computed in one streaming pass through a reused
+ * buffer. Fast and well distributed, not meant to resist deliberate collisions,
+ * which is fine for recognizing copies of the same screenshot.
+ */
+final class ContentHash {
+    /** buffer size for {@link #of(File, byte[])}, a multiple of the 32 byte stripe */
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private ContentHash() {
+    }
+
+    /**
+     * @param file the file to hash
+     * @param buffer {@link #BUFFER_BYTES} bytes to read into, reused between files
+     * @return the XXH64 (seed 0) of the file's contents
+     * @throws IOException if the file cannot be read
+     */
+    static long of(File file, byte[] buffer) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return of(in, buffer);
+        }
+    }
+
+    /**
+     * @param data the bytes to hash
+     * @return the XXH64 (seed 0) of the bytes
+     */
+    static long xxh64(byte[] data) {
+        // one pass: a buffer longer than the data, in whole stripes
+        byte[] buffer = new byte[(data.length / STRIPE + 1) * STRIPE];
+        try {
+            return of(new ByteArrayInputStream(data), buffer);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param text any text, e.g. a settings description
+     * @return the XXH64 of its UTF-8 bytes, hex encoded
+     */
+    static String ofText(String text) {
+        return Long.toHexString(xxh64(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Hashes a stream until it ends.
+     * @param buffer buffer to read into, a multiple of the 32 byte stripe long
+     */
+    private static long of(InputStream in, byte[] buffer) throws IOException {
+        ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        long v1 = PRIME1 + PRIME2;
+        long v2 = PRIME2;
+        long v3 = 0;
+        long v4 = -PRIME1;
+        long total = 0;
+        int length;
+        while (true) {
+            length = fill(in, buffer);
+            total += length;
+            int stripes = (length / STRIPE) * STRIPE;
+            for (int offset = 0; offset < stripes; offset += STRIPE) {
+                v1 = round(v1, words.getLong(offset));
+                v2 = round(v2, words.getLong(offset + 8));
+                v3 = round(v3, words.getLong(offset + 16));
+                v4 = round(v4, words.getLong(offset + 24));
+            }
+            if (length < buffer.length) {
+                break;
+            }
+        }
+
+        long hash;
+        if (total >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += total;
+
+        // the tail after the last full stripe
+        int offset = (length / STRIPE) * STRIPE;
+        for (; offset + 8 <= length; offset += 8) {
+            hash ^= round(0, words.getLong(offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (offset + 4 <= length) {
+            hash ^= (words.getInt(offset) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            offset += 4;
+        }
+        for (; offset < length; offset++) {
+            hash ^= (buffer[offset] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+        return avalanche(hash);
+    }
+
+    /**
+     * Reads until the buffer is full or the file ends.
+     * @return bytes read, less than the buffer only at the end of the file
+     */
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int count;
+        while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += count;
+        }
+        return length;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+        return hash * PRIME1 + PRIME4;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+}
@@ -0,0 +1,102 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+
+/**
+ * A single source file travelling through the conversion pipeline. Each stage
+ * fills in its result and drops the data that later stages no longer need, so
+ * a job only holds one copy of its pixels at a time.
+ */
+class ConversionJob {
+    /** One file the job is written as, for one of the batch's {@link Rendition renditions}. */
+    static class Output {
+        final Rendition rendition;
+        final String formatName;
+        /** key of the file in the {@link DedupCache}, null if the source was not hashed */
+        String contentKey;
+        /** converted copy of an identical file, reused instead of converting */
+        File cachedOutput;
+        /** true while the dedup cache keeps cachedOutput from being evicted */
+        boolean pinned;
+        /** the rendition's pixels, possibly shared with an output of the same size */
+        BufferedImage scaled;
+        byte[] encoded;
+        File target;
+
+        Output(Rendition rendition, String formatName) {
+            this.rendition = rendition;
+            this.formatName = formatName;
+        }
+
+        /**
+         * @return true if the file is already encoded, converted in bands or
+         *  found in the dedup cache
+         */
+        boolean isConverted() {
+            return encoded != null || cachedOutput != null;
+        }
+    }
+
+    enum Status { CONVERTED, SKIPPED, UNCHANGED, READ_ERROR, CORRUPT, WRITE_ERROR, FAILED }
+
+    final File source;
+    Status status = Status.SKIPPED;
+    Throwable error;
+    /** why the file could not be converted, for the error report */
+    String errorMessage;
+    /** times the last step which could fail was tried */
+    int attempts = 1;
+
+    // Filled in by the pipeline stages in order
+    /** format found in the file's first bytes, null if they could not be read */
+    String contentFormat;
+    ImageProbe header;
+    /** the files the image is written as, null until it is known to need converting */
+    List<Output> outputs;
+    BufferedImage decoded;
+    /** pixel memory of the image the job currently holds, for the batch metrics */
+    long imageBytes;
+    /** pixel memory reserved from the batch's {@link MemoryBudget} */
+    long reservedBytes;
+
+    ConversionJob(File source) {
+        this.source = source;
+    }
+
+    /**
+     * Marks the job as failed because of an unexpected error in a stage.
+     * @param ex the error thrown by the stage
+     */
+    void fail(Throwable ex) {
+        status = Status.FAILED;
+        error = ex;
+    }
+
+    /**
+     * @return true if the job already holds all its converted files, converted
+     *  in bands or found in the dedup cache, so scaling and encoding are skipped
+     */
+    boolean isConverted() {
+        for (Output output : outputs) {
+            if (!output.isConverted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops all image data once the job has left the pipeline.
+     */
+    void release() {
+        decoded = null;
+        if (outputs != null) {
+            for (Output output : outputs) {
+                output.scaled = null;
+                output.encoded = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package nmsvrscreenshotfix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs conversion jobs through a chain of stages (filter, decode, scale, encode, write)
+ * connected by bounded hand-off queues. Every stage has its own worker threads,
+ * so reading one file overlaps scaling the previous one and encoding the one
+ * before that. A full queue blocks the stage feeding it, which keeps the number
+ * of images held in memory constant no matter how large the batch is.
+ */
+class ConversionPipeline {
+
+    /**
+     * The work a stage performs on each job.
+     */
+    interface StageWork {
+        /**
+         * @param job the job to be processed, owned by the calling thread
+         * @return true to hand the job to the next stage, false if the job is finished
+         */
+        boolean process(ConversionJob job);
+    }
+
+    /** Marks the end of input in a stage queue and in the finished queue. */
+    private static final ConversionJob END = new ConversionJob(null);
+
+    private final int queueCapacity;
+    private final List<Stage> stages = new ArrayList<>();
+    private final BlockingQueue<ConversionJob> finished = new LinkedBlockingQueue<>();
+    private volatile boolean canceled = false;
+    private final AtomicInteger fedCount = new AtomicInteger();
+
+    /**
+     * @param queueCapacity the number of jobs that may wait in front of each stage
+     */
+    ConversionPipeline(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Appends a stage to the end of the pipeline. Must be called before {@link #start}.
+     * @param name stage name used for thread names and statistics
+     * @param threadCount number of worker threads for this stage
+     * @param work the work performed on each job
+     */
+    void addStage(String name, int threadCount, StageWork work) {
+        Stage stage = new Stage(name, Math.max(1, threadCount), work);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).next = stage;
+        }
+        stages.add(stage);
+    }
+
+    /**
+     * Starts the worker threads of every stage.
+     */
+    void start() {
+        for (Stage stage : stages) {
+            for (int threadIndex = 1; threadIndex <= stage.threadCount; threadIndex++) {
+                Thread worker = new Thread(stage, stage.name + "-worker-" + threadIndex);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+    }
+
+    /**
+     * Feeds the files into the first stage from a separate thread, so the caller
+     * is free to take finished jobs while the feeder waits on a full queue.
+     * Files are pulled from the iterable only as the first queue has room, a
+     * Closeable iterator is closed when feeding ends.
+     * @param files the files to be converted, in order
+     */
+    void feed(Iterable<File> files) {
+        Thread feeder = new Thread(() -> {
+            Stage first = stages.get(0);
+            Iterator<File> fileIterator = files.iterator();
+            try {
+                while (!canceled && fileIterator.hasNext()) {
+                    first.put(new ConversionJob(fileIterator.next()));
+                    fedCount.incrementAndGet();
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                if (fileIterator instanceof Closeable) {
+                    try {
+                        ((Closeable) fileIterator).close();
+                    }
+                    catch (IOException ex) {
+                        System.err.println(">> Error closing file listing: " + ex.getMessage());
+                    }
+                }
+                first.endOfInput();
+            }
+        }, "pipeline-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    /**
+     * Waits for the next job to leave the pipeline, in completion order.
+     * @return the finished job, or null once every fed job has finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    ConversionJob takeFinished() throws InterruptedException {
+        ConversionJob job = finished.take();
+        if (job == END) {
+            finished.add(END);
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Stops feeding new files. Jobs already inside the pipeline are passed
+     * through every remaining stage without being processed.
+     */
+    void cancel() {
+        canceled = true;
+    }
+
+    /**
+     * @return number of files fed into the first stage so far
+     */
+    int getFedCount() {
+        return fedCount.get();
+    }
+
+    /**
+     * @return jobs currently waiting in front of each stage, in stage order
+     */
+    Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (Stage stage : stages) {
+            depths.put(stage.name, stage.input.size());
+        }
+        return depths;
+    }
+
+    /**
+     * Builds a per-stage summary of queue depths and where time was spent.
+     * The stage with a full input queue and busy workers is the bottleneck,
+     * stages after it spend their time starved, stages before it blocked.
+     * @return one line per stage
+     */
+    String statsReport() {
+        StringBuilder report = new StringBuilder();
+        for (Stage stage : stages) {
+            long processed = stage.processed.sum();
+            report.append(String.format("%-7s %6d jobs | queue avg %5.2f max %3d of %3d | busy %8.2fs starved %8.2fs blocked %8.2fs%n",
+                stage.name, processed,
+                processed == 0 ? 0.0 : (double) stage.depthSum.sum() / processed,
+                stage.maxDepth.get(), queueCapacity,
+                stage.busyNanos.sum() / 1e9, stage.starvedNanos.sum() / 1e9, stage.blockedNanos.sum() / 1e9));
+        }
+        return report.toString();
+    }
+
+    /**
+     * One step of the pipeline: an input queue drained by a fixed set of workers.
+     */
+    private class Stage implements Runnable {
+        final String name;
+        final int threadCount;
+        final StageWork work;
+        final BlockingQueue<ConversionJob> input = new ArrayBlockingQueue<>(queueCapacity);
+        final AtomicInteger liveWorkers;
+        Stage next;
+
+        // Statistics
+        final LongAdder processed = new LongAdder();
+        final LongAdder depthSum = new LongAdder();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder starvedNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+
+        Stage(String name, int threadCount, StageWork work) {
+            this.name = name;
+            this.threadCount = threadCount;
+            this.work = work;
+            this.liveWorkers = new AtomicInteger(threadCount);
+        }
+
+        void put(ConversionJob job) throws InterruptedException {
+            input.put(job);
+        }
+
+        /**
+         * Tells every worker of this stage that no more jobs will arrive.
+         */
+        void endOfInput() {
+            for (int workerIndex = 0; workerIndex < threadCount; workerIndex++) {
+                putUninterruptibly(input, END);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long waitStart = System.nanoTime();
+                    ConversionJob job = input.take();
+                    long workStart = System.nanoTime();
+                    starvedNanos.add(workStart - waitStart);
+                    if (job == END) {
+                        return;
+                    }
+                    int depth = input.size();
+                    depthSum.add(depth);
+                    maxDepth.accumulateAndGet(depth, Math::max);
+
+                    boolean passOn = false;
+                    if (canceled) {
+                        job.status = ConversionJob.Status.SKIPPED;
+                    }
+                    else {
+                        try {
+                            passOn = work.process(job);
+                        }
+                        catch (RuntimeException | OutOfMemoryError ex) {
+                            job.fail(ex);
+                        }
+                    }
+                    long workEnd = System.nanoTime();
+                    busyNanos.add(workEnd - workStart);
+                    processed.increment();
+
+                    if (passOn && next != null) {
+                        next.put(job);
+                        blockedNanos.add(System.nanoTime() - workEnd);
+                    }
+                    else {
+                        job.release();
+                        finished.add(job);
+                    }
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                if (liveWorkers.decrementAndGet() == 0) {
+                    if (next != null) {
+                        next.endOfInput();
+                    }
+                    else {
+                        finished.add(END);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<ConversionJob> queue, ConversionJob job) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(job);
+                break;
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package nmsvrscreenshotfix;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Content addressed store of converted files, shared by every run and every
+ * source folder, so a screenshot appearing again in another export, backup
+ * or sync folder is not decoded and squished a second time.
+ *
+ * Entries are keyed by the {@link ContentHash} and size of the source file,
+ * the output format and the settings which decide the output, and each holds
+ * the converted file. Files go into the store as hard links of the written
+ * outputs, and out of it as hard links into the result folder, so they cost
+ * no disk space while the outputs exist. Where linking is not possible, e.g.
+ * across drives, they are copied. An output edited in place changes its
+ * linked entry too, so an entry whose size or modification time no longer
+ * matches is dropped instead of used.
+ *
+ * The store holds at most a given number of bytes, the least recently used
+ * entries are evicted first. Entries found by {@link #lookup} are kept until
+ * they are {@link #unpin unpinned}, so an output about to be reused is not
+ * evicted under the job. The index is rewritten at the end of a batch.
+ *
+ * Several runs may use the store at once, e.g. a watching run and one started
+ * by hand. Each holds a shared lock on the lock file while the store is
+ * open, and reads or writes the index only under an exclusive lock on
+ * another byte of it. Saving merges the entries other runs saved in the
+ * meantime instead of overwriting them. Files the index does not know are
+ * only removed by a run which has the store to itself, and only if they
+ * are older than the run, since they may be entries another run has not
+ * saved yet.
+ *
+ * Index format: a version line followed by one tab separated line per entry,
+ * least recently used first: key, size, modified millis.
+ */
+class DedupCache {
+    static final String INDEX_NAME = "index.tsv";
+    static final String LOCK_NAME = ".lock";
+    /** the folder used unless another is given */
+    static final String DEFAULT_FOLDER = System.getProperty("user.home") + File.separator + ".nmsvrfix"
+        + File.separator + "dedup";
+
+    private static final String HEADER = "#nmsvrfix-dedup\t1";
+    /** names of the files the store creates, see {@link #key} */
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]+-[0-9a-f]+-[0-9a-f]+\\.[a-z]+");
+    /** byte of the lock file locked shared by every run which has the store open */
+    private static final long USE_REGION = 0;
+    /** byte of the lock file locked exclusively while the index is read or written */
+    private static final long INDEX_REGION = 1;
+
+    private static class Entry {
+        final long size;
+        final long modified;
+
+        Entry(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private final File folder;
+    private final long capacityBytes;
+    /** entries in access order, guarded by this */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** number of jobs about to reuse each entry, guarded by this */
+    private final Map<String, Integer> pinned = new HashMap<>();
+    /** entries this run evicted or dropped, not taken back from other runs' index */
+    private final Set<String> dropped = new HashSet<>();
+    private final long openedMillis = System.currentTimeMillis();
+    private FileChannel lockChannel;
+    private FileLock useLock;
+    private long totalBytes;
+    private int hits;
+    private int stored;
+    private int evicted;
+
+    private DedupCache(File folder, long capacityBytes) {
+        this.folder = folder;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Opens a store and loads its index. Files in the folder which the index
+     * does not know, left behind by a run that did not finish, are removed
+     * if no other run has the store open. The store must be {@link #close closed}.
+     * @param folder folder holding the store, created if it does not exist
+     * @param capacityBytes bytes the store may hold
+     * @return the loaded store, empty if it does not exist or cannot be read
+     */
+    static DedupCache open(File folder, long capacityBytes) {
+        DedupCache cache = new DedupCache(folder, capacityBytes);
+        boolean soleUser = cache.lockStore();
+        FileLock indexLock = cache.lockIndex();
+        try {
+            File index = new File(folder, INDEX_NAME);
+            if (index.isFile()) {
+                Map<String, Entry> saved = cache.readIndex(index);
+                cache.entries.putAll(saved);
+                for (Entry entry : saved.values()) {
+                    cache.totalBytes += entry.size;
+                }
+            }
+            if (soleUser) {
+                cache.removeOrphans();
+            }
+        }
+        finally {
+            release(indexLock);
+        }
+        return cache;
+    }
+
+    /**
+     * Takes the shared lock held while the store is open.
+     * @return true if no other run has the store open
+     */
+    private boolean lockStore() {
+        try {
+            folder.mkdirs();
+            lockChannel = FileChannel.open(new File(folder, LOCK_NAME).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // an exclusive lock is only granted if no other run holds the shared one
+            FileLock exclusive = lockChannel.tryLock(USE_REGION, 1, false);
+            if (exclusive != null) {
+                exclusive.release();
+            }
+            useLock = lockChannel.lock(USE_REGION, 1, true);
+            return exclusive != null;
+        }
+        catch (IOException | OverlappingFileLockException ex) {
+            System.err.println(">> Could not lock dedup cache, sharing it unlocked: " + ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return the lock of the index, to be released, or null if the store could not be locked
+     */
+    private FileLock lockIndex() {
+        if (lockChannel == null) {
+            return null;
+        }
+        try {
+            return lockChannel.lock(INDEX_REGION, 1, false);
+        }
+        catch (IOException | OverlappingFileLockException ex) {
+            System.err.println(">> Could not lock dedup cache index: " + ex);
+            return null;
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        }
+        catch (IOException ex) {
+            // closing the channel releases it anyway
+        }
+    }
+
+    /**
+     * @param index an index file
+     * @return its entries whose files exist, least recently used first,
+     *  empty if it cannot be read
+     */
+    private Map<String, Entry> readIndex(File index) {
+        Map<String, Entry> saved = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER)) {
+                return saved;
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 3 && new File(folder, fields[0]).isFile()) {
+                    saved.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+        }
+        catch (IOException | NumberFormatException ex) {
+            System.err.println(">> Could not read dedup cache index, starting empty: " + ex.getMessage());
+            saved.clear();
+        }
+        return saved;
+    }
+
+    private void removeOrphans() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (KEY_PATTERN.matcher(file.getName()).matches() && !entries.containsKey(file.getName())
+                    && file.lastModified() < openedMillis) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param contentHash {@link ContentHash} of the source file
+     * @param sourceSize size of the source file
+     * @param formatName format of the converted file
+     * @param settingsKey description of the settings which decide the output
+     * @return key of the converted file, also its name in the store
+     */
+    static String key(long contentHash, long sourceSize, String formatName, String settingsKey) {
+        return Long.toHexString(contentHash) + "-" + Long.toHexString(sourceSize) + "-"
+            + ContentHash.ofText(settingsKey) + "." + formatName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param key key of a source file, see {@link #key}
+     * @return the stored converted file, pinned until {@link #unpin}, or null
+     *  if there is none or it was changed
+     */
+    File lookup(String key) {
+        File file = new File(folder, key);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (file.length() != entry.size || file.lastModified() != entry.modified) {
+                remove(key, entry);
+                return null;
+            }
+            pinned.merge(key, 1, Integer::sum);
+            hits++;
+        }
+        return file;
+    }
+
+    /**
+     * Allows a file returned by {@link #lookup} to be evicted again.
+     * @param key key it was looked up by
+     */
+    synchronized void unpin(String key) {
+        Integer count = pinned.remove(key);
+        if (count != null && count > 1) {
+            pinned.put(key, count - 1);
+        }
+    }
+
+    /**
+     * Allows every entry to be evicted again, once no job can still use one.
+     */
+    synchronized void unpinAll() {
+        pinned.clear();
+    }
+
+    /**
+     * Adds a converted file to the store and evicts the least recently used
+     * entries beyond the capacity. Failing to store only costs a later reuse.
+     * @param key key of its source file, see {@link #key}
+     * @param output the converted file just written
+     */
+    void store(String key, File output) {
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        File file = new File(folder, key);
+        try {
+            folder.mkdirs();
+            linkOrCopy(output, file);
+        }
+        catch (IOException ex) {
+            System.err.println(">> Could not add to dedup cache: " + ex.getMessage());
+            return;
+        }
+        Entry entry = new Entry(file.length(), file.lastModified());
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += entry.size;
+            stored++;
+            dropped.remove(key);
+            evictBeyondCapacity();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries which are not pinned until the
+     * store fits its capacity. The caller holds this.
+     */
+    private void evictBeyondCapacity() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > capacityBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> oldest = eldest.next();
+            if (pinned.containsKey(oldest.getKey())) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= oldest.getValue().size;
+            evicted++;
+            dropped.add(oldest.getKey());
+            new File(folder, oldest.getKey()).delete();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        totalBytes -= entry.size;
+        dropped.add(key);
+        new File(folder, key).delete();
+    }
+
+    /**
+     * Makes target a hard link of source, or a copy where links are not
+     * supported. Whatever was at target before is removed first, so a file
+     * linked to the store is never written through.
+     * @param source an existing file
+     * @param target path of the link or copy
+     * @throws IOException if neither can be created
+     */
+    static void linkOrCopy(File source, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        }
+        catch (IOException | UnsupportedOperationException ex) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file which then replaces the old one.
+     * Entries other runs saved since this one was opened are kept, unless
+     * this run evicted them.
+     * @throws IOException if the index cannot be written
+     */
+    synchronized void save() throws IOException {
+        if (!folder.isDirectory()) {
+            return;
+        }
+        Path target = new File(folder, INDEX_NAME).toPath();
+        Path temp = target.resolveSibling(INDEX_NAME + ".tmp");
+        FileLock indexLock = lockIndex();
+        try {
+            if (Files.isRegularFile(target)) {
+                for (Map.Entry<String, Entry> saved : readIndex(target.toFile()).entrySet()) {
+                    if (!entries.containsKey(saved.getKey()) && !dropped.contains(saved.getKey())) {
+                        entries.put(saved.getKey(), saved.getValue());
+                        totalBytes += saved.getValue().size;
+                    }
+                }
+                evictBeyondCapacity();
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Entry> record : entries.entrySet()) {
+                    writer.write(record.getKey() + "\t" + record.getValue().size + "\t" + record.getValue().modified);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            release(indexLock);
+        }
+    }
+
+    /**
+     * Releases the store's lock, other runs may then remove what this run
+     * stored without saving.
+     */
+    synchronized void close() {
+        release(useLock);
+        useLock = null;
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Could not unlock dedup cache: " + ex.getMessage());
+            }
+            lockChannel = null;
+        }
+    }
+
+    /**
+     * @return a line describing how the store was used in this batch
+     */
+    synchronized String statsReport() {
+        return String.format("dedup cache %d reused, %d stored, %d evicted, %.1f of %.1f MB in %s%n",
+            hits, stored, evicted, totalBytes / 1048576.0, capacityBytes / 1048576.0, folder.getPath());
+    }
+}
@@ -0,0 +1,175 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encoder parameters for the converted screenshots, applied through the
+ * writer's ImageWriteParam. Immutable, a batch keeps the settings it started with.
+ */
+final class EncoderSettings {
+
+    /**
+     * Speed/size trade-offs which can be picked per batch.
+     */
+    enum Preset {
+        /** fast deflate on every core and a high JPEG quality, which is cheap to encode */
+        SPEED(1, 0.85f, false, true),
+        /** the ImageIO defaults */
+        BALANCED(4, 0.75f, false, false),
+        /** strongest deflate and progressive JPEGs */
+        SIZE(9, 0.75f, true, false);
+
+        final EncoderSettings settings;
+
+        Preset(int pngCompressionLevel, float jpegQuality, boolean jpegProgressive, boolean parallelPng) {
+            this.settings = new EncoderSettings(pngCompressionLevel, jpegQuality, jpegProgressive, parallelPng);
+        }
+    }
+
+    static final int PNG_STORE = 0;
+    static final int PNG_MAX_LEVEL = 9;
+    /**
+     * Equal to the balanced preset. Not taken from it, a Preset touched first
+     * would otherwise see this class half initialized and leave DEFAULT null.
+     */
+    static final EncoderSettings DEFAULT = new EncoderSettings(4, 0.75f, false, false);
+
+    /** deflate level from 0 (store) to 9 */
+    final int pngCompressionLevel;
+    /** JPEG quality from 0 to 1 */
+    final float jpegQuality;
+    final boolean jpegProgressive;
+    /** encode PNGs with {@link ParallelPngWriter} instead of the ImageIO writer */
+    final boolean parallelPng;
+
+    /**
+     * @param pngCompressionLevel deflate level from 0 (store) to 9
+     * @param jpegQuality JPEG quality from 0 to 1
+     * @param jpegProgressive true for progressive, false for baseline JPEGs
+     * @param parallelPng true to deflate each PNG on several cores
+     */
+    EncoderSettings(int pngCompressionLevel, float jpegQuality, boolean jpegProgressive, boolean parallelPng) {
+        if (pngCompressionLevel < PNG_STORE || pngCompressionLevel > PNG_MAX_LEVEL) {
+            throw new IllegalArgumentException("PNG compression level must be 0 to 9");
+        }
+        if (!(jpegQuality > 0f && jpegQuality <= 1f)) {
+            throw new IllegalArgumentException("JPEG quality must be above 0 and at most 1");
+        }
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.jpegQuality = jpegQuality;
+        this.jpegProgressive = jpegProgressive;
+        this.parallelPng = parallelPng;
+    }
+
+    /**
+     * @return the preset with exactly these settings, or null for custom settings
+     */
+    Preset getPreset() {
+        for (Preset preset : Preset.values()) {
+            if (preset.settings.equals(this)) {
+                return preset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes an image in memory with these settings. Samples the format
+     * cannot hold are reduced first, see {@link ImageNormalizer#forFormat}.
+     * @param image image to be encoded
+     * @param formatName format name or file extension, e.g. png, jpg
+     * @param codecs source of the writer and the encode buffer
+     * @return the encoded file contents
+     * @throws IOException if there is no writer for the format or encoding fails
+     */
+    byte[] encode(BufferedImage image, String formatName, ImageCodecCache codecs) throws IOException {
+        image = ImageNormalizer.forFormat(image, formatName);
+        if (parallelPng && formatName.equalsIgnoreCase("png") && ParallelPngWriter.supports(image)) {
+            return ParallelPngWriter.encode(image, pngCompressionLevel);
+        }
+        ImageWriter writer = codecs.takeWriter(formatName);
+        ByteArrayOutputStream encoded = codecs.encodeBuffer();
+        boolean written = false;
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(encoded)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), createWriteParam(writer, formatName));
+            written = true;
+        }
+        finally {
+            if (written) {
+                codecs.returnWriter(writer, formatName);
+            } else {
+                writer.dispose();
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * @param writer the writer which will encode the image
+     * @param formatName format name or file extension
+     * @return write parameters carrying these settings, where the writer supports them
+     */
+    ImageWriteParam createWriteParam(ImageWriter writer, String formatName) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        String format = formatName.toLowerCase(Locale.ROOT);
+        if (format.equals("jpg") || format.equals("jpeg")) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            if (param.canWriteProgressive()) {
+                param.setProgressiveMode(jpegProgressive
+                    ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            }
+        } else if (format.equals("png") && param.canWriteCompressed()) {
+            // the PNG writer maps quality q to deflate level 9 - round(9 * q)
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality((PNG_MAX_LEVEL - pngCompressionLevel) / (float) PNG_MAX_LEVEL);
+        }
+        return param;
+    }
+
+    /**
+     * @return settings text stored in the manifest, so changing them reconverts.
+     *  The PNG writer is left out, both writers produce the same pixels.
+     */
+    String key() {
+        return "png=" + pngCompressionLevel + " jpeg=" + Math.round(jpegQuality * 100)
+            + (jpegProgressive ? " progressive" : " baseline");
+    }
+
+    /**
+     * @return a short description for the settings summary
+     */
+    String describe() {
+        Preset preset = getPreset();
+        String name = (preset == null) ? "custom" : preset.name().toLowerCase(Locale.ROOT);
+        return name + " (PNG level " + pngCompressionLevel + ", JPEG quality " + Math.round(jpegQuality * 100)
+            + (jpegProgressive ? "%, progressive" : "%, baseline") + (parallelPng ? ", parallel PNG)" : ")");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof EncoderSettings)) {
+            return false;
+        }
+        EncoderSettings settings = (EncoderSettings) other;
+        return pngCompressionLevel == settings.pngCompressionLevel
+            && Float.compare(jpegQuality, settings.jpegQuality) == 0
+            && jpegProgressive == settings.jpegProgressive
+            && parallelPng == settings.parallelPng;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((pngCompressionLevel * 31 + Float.floatToIntBits(jpegQuality)) * 31 + (jpegProgressive ? 1 : 0)) * 31
+            + (parallelPng ? 1 : 0);
+    }
+}
@@ -0,0 +1,141 @@
+package nmsvrscreenshotfix;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Files which could not be converted during a batch, collected while the
+ * batch keeps running and shown to the user once at the end.
+ */
+final class ErrorReport {
+
+    /**
+     * What a batch does when a file cannot be converted.
+     */
+    enum Policy {
+        /** skip the file, report it at the end */
+        SKIP("Skip and report"),
+        /** stop the batch at the first error */
+        FAIL_FAST("Stop at first error"),
+        /** try reading and writing again before skipping the file */
+        RETRY("Retry, then skip");
+
+        final String label;
+
+        Policy(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * One file which could not be converted.
+     */
+    static final class Entry {
+        final File file;
+        final ConversionJob.Status status;
+        final String message;
+        /** times the failing step was tried */
+        final int attempts;
+
+        Entry(File file, ConversionJob.Status status, String message, int attempts) {
+            this.file = file;
+            this.status = status;
+            this.message = message;
+            this.attempts = attempts;
+        }
+
+        /**
+         * @return what went wrong, for people
+         */
+        String describe() {
+            switch (status) {
+                case READ_ERROR:
+                    return "Read error";
+                case CORRUPT:
+                    return "Corrupt or not an image";
+                case WRITE_ERROR:
+                    return "Write error";
+                default:
+                    return "Unexpected error";
+            }
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean stoppedEarly;
+
+    /**
+     * @param job a finished job which was not converted because of an error
+     */
+    synchronized void add(ConversionJob job) {
+        String message = job.errorMessage;
+        if (message == null && job.error != null) {
+            message = job.error.toString();
+        }
+        entries.add(new Entry(job.source, job.status, (message == null) ? "" : message, job.attempts));
+    }
+
+    /**
+     * Marks the batch as stopped by the fail-fast policy.
+     */
+    synchronized void stopEarly() {
+        stoppedEarly = true;
+    }
+
+    synchronized boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the errors in the order the files finished
+     */
+    synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * @return one line per file, for people
+     */
+    synchronized String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(entries.size()).append(entries.size() == 1 ? " file was" : " files were")
+            .append(" not converted").append(stoppedEarly ? ", the batch stopped at the first error" : "")
+            .append(":\n");
+        for (Entry entry : entries) {
+            text.append("- ").append(entry.file.getPath()).append("\n    ").append(entry.describe());
+            if (!entry.message.isEmpty()) {
+                text.append(": ").append(entry.message);
+            }
+            if (entry.attempts > 1) {
+                text.append(" (").append(entry.attempts).append(" attempts)");
+            }
+            text.append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the errors as a JSON array
+     */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (Entry entry : entries) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"file\":\"").append(CommandLineBatch.jsonEscape(entry.file.getPath())).append("\"")
+                .append(",\"status\":\"").append(entry.status.name().toLowerCase(Locale.ROOT)).append("\"")
+                .append(",\"message\":\"").append(CommandLineBatch.jsonEscape(entry.message)).append("\"")
+                .append(",\"attempts\":").append(entry.attempts)
+                .append('}');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,62 @@
+package nmsvrscreenshotfix;
+
+/**
+ * Everything the logic controller reports to the user during execution.
+ * Implemented by the main window for the GUI and by {@link CommandLineBatch}
+ * for headless runs, so the conversion logic never depends on Swing.
+ */
+interface ExecutionView {
+
+    /**
+     * @param value percentage of the batch which has finished. (max 100, -1 if
+     *  the total is still being counted)
+     */
+    void updateProgressBar(int value);
+
+    /**
+     * Called when execution starts and stops.
+     */
+    void toggleUI();
+
+    /**
+     * Called before execution if the settings will replace the original screenshots.
+     * Implementations cancel execution unless the user agrees.
+     */
+    void warningReplacingFiles();
+
+    /**
+     * Called at the end of execution, before the cancel or complete popup.
+     * @param report per stage timings of the run as a text table
+     * @see RunReport
+     */
+    void runReport(String report);
+
+    /**
+     * @param converted number of files converted before cancellation
+     */
+    void cancelPopup(int converted);
+
+    /**
+     * @param converted number of converted files during execution
+     */
+    void completePopup(int converted);
+
+    /**
+     * Called once at the end of execution if any file could not be converted,
+     * before the cancel or complete popup.
+     * @param errors the files which failed and why
+     */
+    void errorReport(ErrorReport errors);
+
+    void warningEmptyText();
+
+    void warningExceededTextLimit();
+
+    void warningInvalidText(char invalidChar);
+
+    /**
+     * @param problem why the transforms the user typed cannot be read
+     * @see TransformChain#parse
+     */
+    void warningInvalidTransform(String problem);
+}
@@ -0,0 +1,269 @@
+package nmsvrscreenshotfix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Long running mode which converts screenshots as they land in the source folder.
+ * New and modified image files are reported by the operating system through a
+ * WatchService, the folder is never rescanned. A file is only handed to the
+ * controller once it has received no events for the settle time and its size
+ * has stopped changing, so screenshots which are still being written are left
+ * alone. Every file which settles at the same time is converted as one batch.
+ * Events for the files a batch wrote or renamed in the folder are dropped when
+ * they are collected after the batch, before they could settle.
+ * With subfolders included, every subfolder except the result folder is
+ * watched as well, also those created while watching. The images a new
+ * subfolder already holds when it is registered are treated as new files.
+ */
+class FolderWatcher {
+    private final LogicController controller;
+    private final Path folder;
+    private final boolean recursive;
+    /** result folder, never watched as a subfolder */
+    private final Path excludedFolder;
+    private final long settleMillis;
+    private final LongConsumer batchFinished;
+    private volatile boolean stopped = false;
+    private volatile WatchService watchService;
+    /** the folder of each registered watch key */
+    private final Map<WatchKey, Path> watchedFolders = new HashMap<>();
+
+    /** A file with recent events, waiting to settle. */
+    private static class PendingFile {
+        long lastEventMillis;
+        long lastSize = -1;
+
+        PendingFile(long lastEventMillis) {
+            this.lastEventMillis = lastEventMillis;
+        }
+    }
+
+    /**
+     * @param controller controller which converts each settled batch
+     * @param folder the source folder to be watched
+     * @param recursive true to watch the subfolders as well
+     * @param excludedFolder subfolder which is not watched, the result folder
+     * @param settleMillis how long a file must be quiet before it is converted
+     * @param batchFinished called with the duration in milliseconds after each batch
+     */
+    FolderWatcher(LogicController controller, File folder, boolean recursive, File excludedFolder,
+            long settleMillis, LongConsumer batchFinished) {
+        this.controller = controller;
+        this.folder = folder.toPath();
+        this.recursive = recursive;
+        this.excludedFolder = excludedFolder.toPath().toAbsolutePath().normalize();
+        this.settleMillis = Math.max(100, settleMillis);
+        this.batchFinished = batchFinished;
+    }
+
+    /**
+     * Watches the folder until {@link #stop} is called or a batch is canceled.
+     * @throws IOException if the folder cannot be watched
+     */
+    void run() throws IOException {
+        Map<Path, PendingFile> pending = new LinkedHashMap<>();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            watchService = watcher;
+            watchedFolders.put(register(folder), folder);
+            if (recursive) {
+                registerSubfolders(folder, false, pending);
+            }
+            System.out.println("Watching " + folder + (recursive ? " and its subfolders" : "")
+                + " for new screenshots");
+
+            while (!stopped) {
+                // wake up at least once per settle time while files are pending
+                WatchKey key = pending.isEmpty()
+                    ? watcher.take()
+                    : watcher.poll(settleMillis / 2, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collectEvents(key, pending);
+                    if (!key.reset()) {
+                        // the folder is gone
+                        watchedFolders.remove(key);
+                    }
+                }
+                List<File> settled = takeSettledFiles(pending);
+                if (!settled.isEmpty()) {
+                    System.out.println("Converting " + settled.size() + " new files");
+                    long startNanos = System.nanoTime();
+                    boolean completed = controller.convertNewFiles(settled);
+                    batchFinished.accept((System.nanoTime() - startNanos) / 1_000_000);
+                    if (!completed) {
+                        break;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ex) {
+            // stopped
+        }
+        finally {
+            watchService = null;
+            watchedFolders.clear();
+        }
+    }
+
+    private WatchKey register(Path watched) throws IOException {
+        return watched.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Registers every subfolder below a watched folder, registering a folder
+     * twice is harmless.
+     * @param parent a watched folder
+     * @param markImages true to treat the images found on the way as new files
+     */
+    private void registerSubfolders(Path parent, boolean markImages, Map<Path, PendingFile> pending) {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(parent)) {
+            for (Path entry : entries) {
+                if (isWatchedSubfolder(entry)) {
+                    try {
+                        watchedFolders.put(register(entry), entry);
+                    }
+                    catch (IOException ex) {
+                        System.err.println(">> Could not watch folder " + entry + ": " + ex.getMessage());
+                        continue;
+                    }
+                    registerSubfolders(entry, markImages, pending);
+                } else if (markImages) {
+                    markPending(entry, now, pending);
+                }
+            }
+        }
+        catch (IOException | DirectoryIteratorException ex) {
+            System.err.println(">> Error listing folder " + parent + ": " + ex.getMessage());
+        }
+    }
+
+    private boolean isWatchedSubfolder(Path path) {
+        return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+            && !path.toAbsolutePath().normalize().equals(excludedFolder);
+    }
+
+    /**
+     * Stops watching. A batch which is already converting is finished first.
+     */
+    void stop() {
+        stopped = true;
+        WatchService watcher = watchService;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Error closing folder watcher: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Adds the image files named by the key's events to the pending files.
+     * If the operating system dropped events, every image in the folder is
+     * treated as pending once, the manifest skips those already converted.
+     * A new subfolder is registered along with the subfolders it holds.
+     */
+    private void collectEvents(WatchKey key, Map<Path, PendingFile> pending) {
+        Path watched = watchedFolders.get(key);
+        if (watched == null) {
+            key.pollEvents();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                System.out.println(">> Missed folder events, checking the whole folder");
+                File[] folderContents = watched.toFile().listFiles();
+                if (folderContents != null) {
+                    for (File file : folderContents) {
+                        markPending(file.toPath(), now, pending);
+                    }
+                }
+                if (recursive) {
+                    registerSubfolders(watched, true, pending);
+                }
+                continue;
+            }
+            Path path = watched.resolve((Path) event.context());
+            if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isWatchedSubfolder(path)) {
+                try {
+                    watchedFolders.put(register(path), path);
+                }
+                catch (IOException ex) {
+                    System.err.println(">> Could not watch folder " + path + ": " + ex.getMessage());
+                    continue;
+                }
+                // files moved or copied in before the folder was registered raise no events
+                registerSubfolders(path, true, pending);
+                continue;
+            }
+            markPending(path, now, pending);
+        }
+    }
+
+    private void markPending(Path path, long now, Map<Path, PendingFile> pending) {
+        if (!controller.isSource(path.toAbsolutePath().normalize().toString())) {
+            return;
+        }
+        PendingFile file = pending.get(path);
+        if (file == null) {
+            pending.put(path, new PendingFile(now));
+        } else {
+            file.lastEventMillis = now;
+        }
+    }
+
+    /**
+     * Removes and returns the pending files which have been quiet for the settle
+     * time and whose size has not changed since the previous check.
+     */
+    private List<File> takeSettledFiles(Map<Path, PendingFile> pending) {
+        long now = System.currentTimeMillis();
+        List<File> settled = new ArrayList<>();
+        Iterator<Map.Entry<Path, PendingFile>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = entries.next();
+            File file = entry.getKey().toFile();
+            PendingFile state = entry.getValue();
+            if (!file.isFile()) {
+                // deleted or renamed away before settling
+                entries.remove();
+                continue;
+            }
+            if (now - state.lastEventMillis < settleMillis) {
+                continue;
+            }
+            long size = file.length();
+            if (size != state.lastSize) {
+                state.lastSize = size;
+                state.lastEventMillis = now;
+                continue;
+            }
+            settled.add(file);
+            entries.remove();
+        }
+        return settled;
+    }
+}
@@ -0,0 +1,471 @@
+package nmsvrscreenshotfix;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scales images horizontally only, working directly on the raster's data arrays
+ * instead of going through Graphics2D. Every output row depends on a single
+ * input row, so the filter is a 1-D pass: for each output column a table holds
+ * the first input column and the fixed point weights of the input columns it
+ * covers. The table depends only on the two widths and is shared by every row
+ * and every image of the same size.
+ *
+ * Supports 8 bit samples stored either interleaved in a byte array (3BYTE_BGR,
+ * 4BYTE_ABGR, BYTE_GRAY, ...) or packed into an int array (INT_RGB, INT_ARGB, ...),
+ * and 16 bit samples interleaved in a short array (USHORT_GRAY, 16 bit PNGs).
+ * Channels are filtered independently, alpha is not premultiplied first.
+ *
+ * Nearest neighbor only copies pixels, which the Java2D scaled blit of a
+ * standard image type already does faster than a per-pixel loop, so it is left
+ * to drawImage. It picks the same source columns as the table would, except
+ * where an output pixel's center falls exactly between two source columns,
+ * which Java2D may give to either of them.
+ */
+class HorizontalResampler {
+    enum Mode { NEAREST, BILINEAR, AREA_AVERAGE }
+
+    static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    static final int ROUNDING = WEIGHT_ONE >> 1;
+
+    /**
+     * Input columns and weights of every output column. Tables are one
+     * dimensional, {@link TransformRenderer} uses them for rows as well.
+     */
+    static class FilterTable {
+        final int[] first;
+        final int[] taps;
+        final int[] weights;
+        final int maxTaps;
+
+        FilterTable(int dstWidth, int maxTaps) {
+            this.first = new int[dstWidth];
+            this.taps = new int[dstWidth];
+            this.weights = new int[dstWidth * maxTaps];
+            this.maxTaps = maxTaps;
+        }
+    }
+
+    private final Mode mode;
+    private final Map<Long, FilterTable> tables = new ConcurrentHashMap<>();
+
+    HorizontalResampler(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param image a decoded image
+     * @return true if the image's raster layout can be resampled directly
+     */
+    static boolean supports(BufferedImage image) {
+        if (image.getColorModel() instanceof IndexColorModel) {
+            // palette indices cannot be blended
+            return false;
+        }
+        Raster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer.getNumBanks() != 1) {
+            return false;
+        }
+        if ((buffer instanceof DataBufferByte || buffer instanceof DataBufferUShort)
+                && sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+            if (components.getNumBands() > components.getPixelStride()) {
+                return false;
+            }
+            for (int bandOffset : components.getBandOffsets()) {
+                if (bandOffset >= components.getPixelStride()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (buffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel) {
+            for (int mask : ((SinglePixelPackedSampleModel) sampleModel).getBitMasks()) {
+                if (mask != 0xFF && mask != 0xFF00 && mask != 0xFF0000 && mask != 0xFF000000) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Scales the image to a new width, keeping its height and pixel layout.
+     * @param source an image for which {@link #supports} is true
+     * @param dstWidth width of the new image
+     * @return the resampled image
+     */
+    BufferedImage resize(BufferedImage source, int dstWidth) {
+        BufferedImage destination = createDestination(source, dstWidth);
+        resizeInto(source, destination);
+        return destination;
+    }
+
+    /**
+     * Resamples every row of the source into a destination of the same height
+     * and the same pixel layout.
+     * @param source an image for which {@link #supports} is true
+     * @param destination image receiving the resampled rows
+     */
+    void resizeInto(BufferedImage source, BufferedImage destination) {
+        if (mode == Mode.NEAREST && isBlittable(source, destination)) {
+            blit(source, destination);
+            return;
+        }
+        FilterTable table = tableFor(source.getWidth(), destination.getWidth());
+        Raster srcRaster = source.getRaster();
+        WritableRaster dstRaster = destination.getRaster();
+        if (srcRaster.getDataBuffer() instanceof DataBufferByte) {
+            resampleBytes(srcRaster, dstRaster, table);
+        } else if (srcRaster.getDataBuffer() instanceof DataBufferUShort) {
+            resampleShorts(srcRaster, dstRaster, table);
+        } else {
+            resampleInts(srcRaster, dstRaster, table);
+        }
+    }
+
+    /**
+     * Java2D only has scaled blits between images of the same standard type,
+     * others go through a generic loop, and 16 bit samples would be cut to 8 bits.
+     */
+    private static boolean isBlittable(BufferedImage source, BufferedImage destination) {
+        int type = source.getType();
+        return type == destination.getType() && type != BufferedImage.TYPE_CUSTOM
+            && type != BufferedImage.TYPE_USHORT_GRAY;
+    }
+
+    /**
+     * Copies the nearest source pixel into every destination pixel, replacing
+     * whatever a pooled destination held, alpha included.
+     */
+    private static void blit(BufferedImage source, BufferedImage destination) {
+        Graphics2D g2d = destination.createGraphics();
+        try {
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2d.drawImage(source, 0, 0, destination.getWidth(), destination.getHeight(), null);
+        }
+        finally {
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Creates an empty image with the source's pixel layout and a new width.
+     * @param source the original image
+     * @param width width of the new image
+     * @return a new image of the same type, or the same color and sample model
+     */
+    static BufferedImage createDestination(BufferedImage source, int width) {
+        return createDestination(source, width, source.getHeight());
+    }
+
+    /**
+     * Creates an empty image with the source's pixel layout and a new size.
+     * @param source the original image
+     * @param width width of the new image
+     * @param height height of the new image
+     * @return a new image of the same type, or the same color and sample model
+     */
+    static BufferedImage createDestination(BufferedImage source, int width, int height) {
+        if (source.getType() != BufferedImage.TYPE_CUSTOM) {
+            return new BufferedImage(width, height, source.getType());
+        }
+        WritableRaster raster = Raster.createWritableRaster(
+            source.getSampleModel().createCompatibleSampleModel(width, height), null);
+        return new BufferedImage(source.getColorModel(), raster, source.isAlphaPremultiplied(), null);
+    }
+
+    private void resampleBytes(Raster srcRaster, WritableRaster dstRaster, FilterTable table) {
+        ComponentSampleModel srcModel = (ComponentSampleModel) srcRaster.getSampleModel();
+        ComponentSampleModel dstModel = (ComponentSampleModel) dstRaster.getSampleModel();
+        DataBufferByte srcBuffer = (DataBufferByte) srcRaster.getDataBuffer();
+        DataBufferByte dstBuffer = (DataBufferByte) dstRaster.getDataBuffer();
+        byte[] src = srcBuffer.getData();
+        byte[] dst = dstBuffer.getData();
+        int pixelStride = srcModel.getPixelStride();
+        int srcScan = srcModel.getScanlineStride();
+        int dstScan = dstModel.getScanlineStride();
+        int srcBase = srcBuffer.getOffset()
+            - srcRaster.getSampleModelTranslateY() * srcScan - srcRaster.getSampleModelTranslateX() * pixelStride;
+        int dstBase = dstBuffer.getOffset()
+            - dstRaster.getSampleModelTranslateY() * dstScan - dstRaster.getSampleModelTranslateX() * pixelStride;
+        int[] srcOffsets = new int[table.first.length];
+        for (int column = 0; column < srcOffsets.length; column++) {
+            srcOffsets[column] = table.first[column] * pixelStride;
+        }
+
+        for (int row = 0; row < srcRaster.getHeight(); row++) {
+            int srcRow = srcBase + row * srcScan;
+            int dstRow = dstBase + row * dstScan;
+            if (table.maxTaps == 1) {
+                copyRowBytes(src, srcRow, dst, dstRow, srcOffsets, pixelStride);
+            } else if (pixelStride == 3) {
+                filterRowBytes3(src, srcRow, dst, dstRow, srcOffsets, table);
+            } else if (pixelStride == 4) {
+                filterRowBytes4(src, srcRow, dst, dstRow, srcOffsets, table);
+            } else {
+                filterRowBytes(src, srcRow, dst, dstRow, srcOffsets, table, pixelStride);
+            }
+        }
+    }
+
+    private static void copyRowBytes(byte[] src, int srcRow, byte[] dst, int dstRow, int[] srcOffsets, int pixelStride) {
+        if (pixelStride == 3) {
+            for (int column = 0, dstPixel = dstRow; column < srcOffsets.length; column++, dstPixel += 3) {
+                int srcPixel = srcRow + srcOffsets[column];
+                dst[dstPixel] = src[srcPixel];
+                dst[dstPixel + 1] = src[srcPixel + 1];
+                dst[dstPixel + 2] = src[srcPixel + 2];
+            }
+            return;
+        }
+        for (int column = 0, dstPixel = dstRow; column < srcOffsets.length; column++, dstPixel += pixelStride) {
+            int srcPixel = srcRow + srcOffsets[column];
+            for (int channel = 0; channel < pixelStride; channel++) {
+                dst[dstPixel + channel] = src[srcPixel + channel];
+            }
+        }
+    }
+
+    private static void filterRowBytes3(byte[] src, int srcRow, byte[] dst, int dstRow, int[] srcOffsets, FilterTable table) {
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+        for (int column = 0, dstPixel = dstRow; column < srcOffsets.length; column++, dstPixel += 3) {
+            int srcPixel = srcRow + srcOffsets[column];
+            int weightIndex = column * maxTaps;
+            int tapEnd = weightIndex + taps[column];
+            int sum0 = ROUNDING, sum1 = ROUNDING, sum2 = ROUNDING;
+            for (; weightIndex < tapEnd; weightIndex++, srcPixel += 3) {
+                int weight = weights[weightIndex];
+                sum0 += (src[srcPixel] & 0xFF) * weight;
+                sum1 += (src[srcPixel + 1] & 0xFF) * weight;
+                sum2 += (src[srcPixel + 2] & 0xFF) * weight;
+            }
+            dst[dstPixel] = (byte) (sum0 >>> WEIGHT_BITS);
+            dst[dstPixel + 1] = (byte) (sum1 >>> WEIGHT_BITS);
+            dst[dstPixel + 2] = (byte) (sum2 >>> WEIGHT_BITS);
+        }
+    }
+
+    private static void filterRowBytes4(byte[] src, int srcRow, byte[] dst, int dstRow, int[] srcOffsets, FilterTable table) {
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+        for (int column = 0, dstPixel = dstRow; column < srcOffsets.length; column++, dstPixel += 4) {
+            int srcPixel = srcRow + srcOffsets[column];
+            int weightIndex = column * maxTaps;
+            int tapEnd = weightIndex + taps[column];
+            int sum0 = ROUNDING, sum1 = ROUNDING, sum2 = ROUNDING, sum3 = ROUNDING;
+            for (; weightIndex < tapEnd; weightIndex++, srcPixel += 4) {
+                int weight = weights[weightIndex];
+                sum0 += (src[srcPixel] & 0xFF) * weight;
+                sum1 += (src[srcPixel + 1] & 0xFF) * weight;
+                sum2 += (src[srcPixel + 2] & 0xFF) * weight;
+                sum3 += (src[srcPixel + 3] & 0xFF) * weight;
+            }
+            dst[dstPixel] = (byte) (sum0 >>> WEIGHT_BITS);
+            dst[dstPixel + 1] = (byte) (sum1 >>> WEIGHT_BITS);
+            dst[dstPixel + 2] = (byte) (sum2 >>> WEIGHT_BITS);
+            dst[dstPixel + 3] = (byte) (sum3 >>> WEIGHT_BITS);
+        }
+    }
+
+    private static void filterRowBytes(byte[] src, int srcRow, byte[] dst, int dstRow, int[] srcOffsets,
+            FilterTable table, int pixelStride) {
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+        for (int column = 0, dstPixel = dstRow; column < srcOffsets.length; column++, dstPixel += pixelStride) {
+            int srcPixel = srcRow + srcOffsets[column];
+            int weightIndex = column * maxTaps;
+            int tapCount = taps[column];
+            for (int channel = 0; channel < pixelStride; channel++) {
+                int sum = ROUNDING;
+                for (int tap = 0, srcIndex = srcPixel + channel; tap < tapCount; tap++, srcIndex += pixelStride) {
+                    sum += (src[srcIndex] & 0xFF) * weights[weightIndex + tap];
+                }
+                dst[dstPixel + channel] = (byte) (sum >>> WEIGHT_BITS);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #resampleBytes} for 16 bit samples. Weights add up to
+     * {@link #WEIGHT_ONE}, so a 16 bit sum still fits an int.
+     */
+    private void resampleShorts(Raster srcRaster, WritableRaster dstRaster, FilterTable table) {
+        ComponentSampleModel srcModel = (ComponentSampleModel) srcRaster.getSampleModel();
+        ComponentSampleModel dstModel = (ComponentSampleModel) dstRaster.getSampleModel();
+        DataBufferUShort srcBuffer = (DataBufferUShort) srcRaster.getDataBuffer();
+        DataBufferUShort dstBuffer = (DataBufferUShort) dstRaster.getDataBuffer();
+        short[] src = srcBuffer.getData();
+        short[] dst = dstBuffer.getData();
+        int pixelStride = srcModel.getPixelStride();
+        int srcScan = srcModel.getScanlineStride();
+        int dstScan = dstModel.getScanlineStride();
+        int srcBase = srcBuffer.getOffset()
+            - srcRaster.getSampleModelTranslateY() * srcScan - srcRaster.getSampleModelTranslateX() * pixelStride;
+        int dstBase = dstBuffer.getOffset()
+            - dstRaster.getSampleModelTranslateY() * dstScan - dstRaster.getSampleModelTranslateX() * pixelStride;
+        int[] first = table.first;
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+
+        for (int row = 0; row < srcRaster.getHeight(); row++) {
+            int srcRow = srcBase + row * srcScan;
+            int dstPixel = dstBase + row * dstScan;
+            for (int column = 0; column < first.length; column++, dstPixel += pixelStride) {
+                int srcPixel = srcRow + first[column] * pixelStride;
+                int weightIndex = column * maxTaps;
+                int tapCount = taps[column];
+                for (int channel = 0; channel < pixelStride; channel++) {
+                    int sum = ROUNDING;
+                    for (int tap = 0, srcIndex = srcPixel + channel; tap < tapCount; tap++, srcIndex += pixelStride) {
+                        sum += (src[srcIndex] & 0xFFFF) * weights[weightIndex + tap];
+                    }
+                    dst[dstPixel + channel] = (short) (sum >>> WEIGHT_BITS);
+                }
+            }
+        }
+    }
+
+    private void resampleInts(Raster srcRaster, WritableRaster dstRaster, FilterTable table) {
+        SinglePixelPackedSampleModel srcModel = (SinglePixelPackedSampleModel) srcRaster.getSampleModel();
+        SinglePixelPackedSampleModel dstModel = (SinglePixelPackedSampleModel) dstRaster.getSampleModel();
+        DataBufferInt srcBuffer = (DataBufferInt) srcRaster.getDataBuffer();
+        DataBufferInt dstBuffer = (DataBufferInt) dstRaster.getDataBuffer();
+        int[] src = srcBuffer.getData();
+        int[] dst = dstBuffer.getData();
+        int srcScan = srcModel.getScanlineStride();
+        int dstScan = dstModel.getScanlineStride();
+        int srcBase = srcBuffer.getOffset()
+            - srcRaster.getSampleModelTranslateY() * srcScan - srcRaster.getSampleModelTranslateX();
+        int dstBase = dstBuffer.getOffset()
+            - dstRaster.getSampleModelTranslateY() * dstScan - dstRaster.getSampleModelTranslateX();
+        int[] first = table.first;
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+        int dstWidth = first.length;
+
+        for (int row = 0; row < srcRaster.getHeight(); row++) {
+            int srcRow = srcBase + row * srcScan;
+            int dstPixel = dstBase + row * dstScan;
+            if (maxTaps == 1) {
+                for (int column = 0; column < dstWidth; column++, dstPixel++) {
+                    dst[dstPixel] = src[srcRow + first[column]];
+                }
+                continue;
+            }
+            for (int column = 0; column < dstWidth; column++, dstPixel++) {
+                int srcPixel = srcRow + first[column];
+                int tapCount = taps[column];
+                int weightIndex = column * maxTaps;
+                int sum0 = ROUNDING, sum1 = ROUNDING, sum2 = ROUNDING, sum3 = ROUNDING;
+                for (int tap = 0; tap < tapCount; tap++) {
+                    int pixel = src[srcPixel + tap];
+                    int weight = weights[weightIndex + tap];
+                    sum0 += (pixel & 0xFF) * weight;
+                    sum1 += ((pixel >>> 8) & 0xFF) * weight;
+                    sum2 += ((pixel >>> 16) & 0xFF) * weight;
+                    sum3 += (pixel >>> 24) * weight;
+                }
+                dst[dstPixel] = (sum0 >>> WEIGHT_BITS)
+                    | ((sum1 >>> WEIGHT_BITS) << 8)
+                    | ((sum2 >>> WEIGHT_BITS) << 16)
+                    | ((sum3 >>> WEIGHT_BITS) << 24);
+            }
+        }
+    }
+
+    /**
+     * @param srcWidth number of input samples
+     * @param dstWidth number of output samples
+     * @return the shared table filtering one into the other in this resampler's mode
+     */
+    FilterTable tableFor(int srcWidth, int dstWidth) {
+        return tables.computeIfAbsent(((long) srcWidth << 32) | dstWidth, key -> buildTable(srcWidth, dstWidth));
+    }
+
+    /**
+     * Computes the input columns and weights of every output column. Weights of
+     * a column always add up to exactly {@link #WEIGHT_ONE}, so results never overflow a sample.
+     */
+    private FilterTable buildTable(int srcWidth, int dstWidth) {
+        double scale = (double) srcWidth / dstWidth;
+        Mode tableMode = (mode == Mode.AREA_AVERAGE && scale <= 1.0) ? Mode.BILINEAR : mode;
+        int maxTaps = (tableMode == Mode.NEAREST) ? 1 : (tableMode == Mode.BILINEAR) ? 2 : (int) Math.ceil(scale) + 1;
+        FilterTable table = new FilterTable(dstWidth, maxTaps);
+        double[] exact = new double[maxTaps];
+
+        for (int column = 0; column < dstWidth; column++) {
+            int firstColumn;
+            int tapCount;
+            if (tableMode == Mode.NEAREST) {
+                firstColumn = Math.min(srcWidth - 1, (int) ((column + 0.5) * scale));
+                tapCount = 1;
+                exact[0] = 1.0;
+            }
+            else if (tableMode == Mode.BILINEAR) {
+                double center = Math.max(0.0, (column + 0.5) * scale - 0.5);
+                firstColumn = Math.min(srcWidth - 1, (int) center);
+                double fraction = center - firstColumn;
+                tapCount = (firstColumn + 1 < srcWidth && fraction > 0.0) ? 2 : 1;
+                exact[0] = (tapCount == 2) ? 1.0 - fraction : 1.0;
+                exact[1] = fraction;
+            }
+            else {
+                double start = column * scale;
+                double end = Math.min(srcWidth, (column + 1) * scale);
+                firstColumn = (int) start;
+                tapCount = 0;
+                for (int srcColumn = firstColumn; srcColumn < end && tapCount < maxTaps; srcColumn++) {
+                    double covered = Math.min(end, srcColumn + 1) - Math.max(start, srcColumn);
+                    exact[tapCount++] = covered / (end - start);
+                }
+            }
+            table.first[column] = firstColumn;
+            table.taps[column] = tapCount;
+            toFixedPoint(exact, tapCount, table.weights, column * maxTaps);
+        }
+        return table;
+    }
+
+    /**
+     * Rounds the weights to fixed point, giving any rounding error to the
+     * largest weight so the sum stays exact.
+     */
+    private static void toFixedPoint(double[] exact, int count, int[] weights, int offset) {
+        int sum = 0;
+        int largest = 0;
+        for (int tap = 0; tap < count; tap++) {
+            weights[offset + tap] = (int) Math.round(exact[tap] * WEIGHT_ONE);
+            sum += weights[offset + tap];
+            if (weights[offset + tap] > weights[offset + largest]) {
+                largest = tap;
+            }
+        }
+        weights[offset + largest] += WEIGHT_ONE - sum;
+    }
+}
@@ -0,0 +1,119 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of images keyed by width, height and image type, so the decode
+ * and scale targets of same-size screenshots are reused instead of allocated
+ * for every file. Each thread keeps the image it released last in a private
+ * slot which it checks first, the rest are shared. Images beyond the memory cap
+ * are left to the garbage collector. Only standard image types are pooled.
+ *
+ * Pooled images still hold the pixels of their previous use, callers must
+ * overwrite every pixel.
+ */
+class ImageBufferPool {
+    private final long capacityBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final Map<Long, Queue<BufferedImage>> shared = new ConcurrentHashMap<>();
+    private final ThreadLocal<BufferedImage> lastReleased = new ThreadLocal<>();
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacityBytes maximum pixel memory held by idle pooled images
+     */
+    ImageBufferPool(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Returns an idle image of the requested size and type, or a new one.
+     * @param width image width
+     * @param height image height
+     * @param imageType a BufferedImage type other than TYPE_CUSTOM
+     * @return an image whose previous pixels must all be overwritten
+     */
+    BufferedImage acquire(int width, int height, int imageType) {
+        BufferedImage own = lastReleased.get();
+        if (own != null && matches(own, width, height, imageType)) {
+            lastReleased.remove();
+            pooledBytes.addAndGet(-sizeOf(own));
+            hits.increment();
+            return own;
+        }
+        Queue<BufferedImage> idle = shared.get(key(width, height, imageType));
+        BufferedImage image = (idle == null) ? null : idle.poll();
+        if (image != null) {
+            pooledBytes.addAndGet(-sizeOf(image));
+            hits.increment();
+            return image;
+        }
+        misses.increment();
+        return new BufferedImage(width, height, imageType);
+    }
+
+    /**
+     * Makes an image available for reuse. The caller must not use it afterwards.
+     * Palette images are not kept, their palette belongs to the file they came from.
+     * @param image an image which is no longer needed, may be null
+     */
+    void release(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM
+                || image.getType() == BufferedImage.TYPE_BYTE_INDEXED || image.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            return;
+        }
+        long size = sizeOf(image);
+        if (pooledBytes.addAndGet(size) > capacityBytes) {
+            pooledBytes.addAndGet(-size);
+            return;
+        }
+        BufferedImage own = lastReleased.get();
+        lastReleased.set(image);
+        if (own != null) {
+            shared.computeIfAbsent(key(own.getWidth(), own.getHeight(), own.getType()),
+                key -> new ConcurrentLinkedQueue<>()).add(own);
+        }
+    }
+
+    /**
+     * @return pixel memory currently held by idle pooled images
+     */
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return one line describing how often images were reused
+     */
+    String statsReport() {
+        return String.format("buffers %d reused, %d allocated, %.1f MB idle of %.1f MB%n",
+            hits.sum(), misses.sum(), pooledBytes.get() / 1048576.0, capacityBytes / 1048576.0);
+    }
+
+    /**
+     * @param image any image
+     * @return bytes used by the image's pixel data
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static boolean matches(BufferedImage image, int width, int height, int imageType) {
+        return image.getWidth() == width && image.getHeight() == height && image.getType() == imageType;
+    }
+
+    private static long key(int width, int height, int imageType) {
+        return ((long) width << 40) | ((long) height << 16) | imageType;
+    }
+}
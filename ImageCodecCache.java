@@ -0,0 +1,159 @@
+package nmsvrscreenshotfix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Keeps one ImageReader and one ImageWriter per worker thread and format, so
+ * a batch does not pay for a service registry lookup and a new codec with all
+ * its internal state for every file. Codecs are reset between files and
+ * disposed when the batch ends. Each worker also keeps one encode buffer which
+ * grows to the largest encoded image and is then reused, a small buffer
+ * for reading file signatures and one for hashing file contents.
+ */
+final class ImageCodecCache {
+    private final ThreadLocal<Map<String, ImageReader>> readers = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<String, ImageWriter>> writers = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<ByteArrayOutputStream> encodeBuffers = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+    private final ThreadLocal<byte[]> signatureBuffers = ThreadLocal.withInitial(() -> new byte[ImageSignature.LENGTH]);
+    private final ThreadLocal<byte[]> hashBuffers = ThreadLocal.withInitial(() -> new byte[ContentHash.BUFFER_BYTES]);
+    /** every codec handed out, to dispose them once their threads are gone */
+    private final Queue<Object> created = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Returns the calling thread's reader for the file extension if it can
+     * decode the stream, otherwise looks up a reader in the registry.
+     * The stream position is left unchanged.
+     * @param stream the image stream
+     * @param extension file extension, a hint for which reader to try first
+     * @return a reader without input, or null if no reader recognizes the stream
+     * @throws IOException if the stream cannot be read
+     */
+    ImageReader takeReader(ImageInputStream stream, String extension) throws IOException {
+        String key = extension.toLowerCase(Locale.ROOT);
+        ImageReader cached = readers.get().remove(key);
+        if (cached != null) {
+            if (canDecode(cached, stream)) {
+                return cached;
+            }
+            readers.get().put(key, cached);
+        }
+        Iterator<ImageReader> found = ImageIO.getImageReaders(stream);
+        if (!found.hasNext()) {
+            return null;
+        }
+        ImageReader reader = found.next();
+        created.add(reader);
+        return reader;
+    }
+
+    /**
+     * Checks the stream's magic bytes like the registry lookup does, a stream
+     * too short to check cannot be decoded.
+     */
+    private static boolean canDecode(ImageReader reader, ImageInputStream stream) throws IOException {
+        stream.mark();
+        try {
+            return reader.getOriginatingProvider().canDecodeInput(stream);
+        }
+        catch (IOException ex) {
+            return false;
+        }
+        finally {
+            stream.reset();
+        }
+    }
+
+    /**
+     * Gives a reader back to the calling thread for the next file.
+     * @param reader a reader from {@link #takeReader}
+     * @param extension the extension it was taken for
+     */
+    void returnReader(ImageReader reader, String extension) {
+        reader.reset();
+        ImageReader replaced = readers.get().put(extension.toLowerCase(Locale.ROOT), reader);
+        if (replaced != null) {
+            // a mislabeled file brought a reader for another format
+            replaced.dispose();
+        }
+    }
+
+    /**
+     * @param formatName format name or file extension, e.g. png, jpg
+     * @return the calling thread's writer for the format
+     * @throws IOException if there is no writer for the format
+     */
+    ImageWriter takeWriter(String formatName) throws IOException {
+        String key = formatName.toLowerCase(Locale.ROOT);
+        ImageWriter cached = writers.get().remove(key);
+        if (cached != null) {
+            return cached;
+        }
+        Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(key);
+        if (!found.hasNext()) {
+            throw new IOException("No writer for format " + formatName);
+        }
+        ImageWriter writer = found.next();
+        created.add(writer);
+        return writer;
+    }
+
+    /**
+     * Gives a writer back to the calling thread for the next file.
+     * @param writer a writer from {@link #takeWriter}
+     * @param formatName the format it was taken for
+     */
+    void returnWriter(ImageWriter writer, String formatName) {
+        writer.reset();
+        writers.get().put(formatName.toLowerCase(Locale.ROOT), writer);
+    }
+
+    /**
+     * @return the calling thread's encode buffer, emptied
+     */
+    ByteArrayOutputStream encodeBuffer() {
+        ByteArrayOutputStream buffer = encodeBuffers.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * @return the calling thread's buffer for {@link ImageSignature#sniff}
+     */
+    byte[] signatureBuffer() {
+        return signatureBuffers.get();
+    }
+
+    /**
+     * @return the calling thread's buffer for {@link ContentHash#of}
+     */
+    byte[] hashBuffer() {
+        return hashBuffers.get();
+    }
+
+    /**
+     * Releases the native resources of every codec handed out, disposing a
+     * codec twice is harmless. Must only be called when no thread uses this
+     * cache anymore.
+     */
+    void dispose() {
+        Object codec;
+        while ((codec = created.poll()) != null) {
+            if (codec instanceof ImageReader) {
+                ((ImageReader) codec).dispose();
+            } else {
+                ((ImageWriter) codec).dispose();
+            }
+        }
+    }
+}
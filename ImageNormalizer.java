@@ -0,0 +1,191 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.util.Locale;
+
+/**
+ * Maps decoded images onto pixel layouts the rest of the conversion works on
+ * directly, so no image goes through Java2D's generic conversion loops.
+ *
+ * For squishing, 8 and 16 bit gray, RGB and alpha layouts are kept as they
+ * are, {@link HorizontalResampler} handles them, so bit depth and alpha
+ * survive into the converted file. Palette images, whose indices cannot be
+ * blended, are expanded by table lookup to BYTE_GRAY, 3BYTE_BGR or 4BYTE_ABGR
+ * depending on the palette. Anything else (packed 565, float samples, ...)
+ * is converted row by row to INT_RGB or INT_ARGB.
+ *
+ * For JPEG files, which hold neither alpha nor 16 bit samples, images are
+ * reduced to BYTE_GRAY or 3BYTE_BGR before encoding.
+ */
+final class ImageNormalizer {
+
+    private ImageNormalizer() {
+    }
+
+    /**
+     * @param image a decoded image
+     * @param pool pool providing the converted image
+     * @return the image itself if {@link HorizontalResampler#supports} it,
+     *  otherwise a converted copy the caller may release to the pool
+     */
+    static BufferedImage forResampling(BufferedImage image, ImageBufferPool pool) {
+        if (HorizontalResampler.supports(image)) {
+            return image;
+        }
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel instanceof IndexColorModel) {
+            return expandPalette(image, (IndexColorModel) colorModel, pool, true);
+        }
+        return toIntRgb(image, colorModel.hasAlpha(), pool);
+    }
+
+    /**
+     * @param image an image about to be encoded
+     * @param formatName format name or file extension
+     * @return the image itself if the format can hold its samples, otherwise
+     *  a reduced copy
+     */
+    static BufferedImage forFormat(BufferedImage image, String formatName) {
+        String format = formatName.toLowerCase(Locale.ROOT);
+        if (!format.equals("jpg") && !format.equals("jpeg")) {
+            return image;
+        }
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel instanceof IndexColorModel) {
+            return expandPalette(image, (IndexColorModel) colorModel, null, false);
+        }
+        if (!colorModel.hasAlpha() && !hasWideSamples(colorModel)) {
+            return image;
+        }
+        if (colorModel instanceof ComponentColorModel) {
+            return dropAlphaAndDepth(image);
+        }
+        return toIntRgb(image, false, null);
+    }
+
+    private static boolean hasWideSamples(ColorModel colorModel) {
+        for (int bits : colorModel.getComponentSize()) {
+            if (bits > 8) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks every index up in the palette. Gray palettes without transparency
+     * become BYTE_GRAY, palettes with transparency 4BYTE_ABGR, others 3BYTE_BGR.
+     * @param keepAlpha false to drop the palette's transparency
+     */
+    private static BufferedImage expandPalette(BufferedImage image, IndexColorModel palette, ImageBufferPool pool,
+            boolean keepAlpha) {
+        int size = palette.getMapSize();
+        byte[] reds = new byte[size];
+        byte[] greens = new byte[size];
+        byte[] blues = new byte[size];
+        byte[] alphas = new byte[size];
+        palette.getReds(reds);
+        palette.getGreens(greens);
+        palette.getBlues(blues);
+        palette.getAlphas(alphas);
+        boolean alpha = keepAlpha && palette.hasAlpha();
+        boolean gray = !alpha;
+        for (int index = 0; index < size && gray; index++) {
+            gray = reds[index] == greens[index] && greens[index] == blues[index];
+        }
+        int type = alpha ? BufferedImage.TYPE_4BYTE_ABGR
+            : gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage expanded = acquire(pool, width, height, type);
+        byte[] target = ((DataBufferByte) expanded.getRaster().getDataBuffer()).getData();
+        int stride = alpha ? 4 : gray ? 1 : 3;
+
+        Raster raster = image.getRaster();
+        int[] indices = new int[width];
+        for (int row = 0; row < height; row++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + row, width, 1, 0, indices);
+            int pixel = row * width * stride;
+            for (int column = 0; column < width; column++, pixel += stride) {
+                int index = indices[column];
+                if (index >= size) {
+                    index = 0;
+                }
+                if (gray) {
+                    target[pixel] = reds[index];
+                } else if (alpha) {
+                    target[pixel] = alphas[index];
+                    target[pixel + 1] = blues[index];
+                    target[pixel + 2] = greens[index];
+                    target[pixel + 3] = reds[index];
+                } else {
+                    target[pixel] = blues[index];
+                    target[pixel + 1] = greens[index];
+                    target[pixel + 2] = reds[index];
+                }
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Copies the color samples of a gray or RGB image with up to 16 bits per
+     * sample into BYTE_GRAY or 3BYTE_BGR, keeping the top 8 bits of each
+     * sample and leaving out alpha.
+     */
+    private static BufferedImage dropAlphaAndDepth(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        int colors = colorModel.getNumColorComponents();
+        int channels = colorModel.getNumComponents();
+        int[] shifts = new int[channels];
+        for (int channel = 0; channel < channels; channel++) {
+            shifts[channel] = Math.max(0, colorModel.getComponentSize(channel) - 8);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage reduced = new BufferedImage(width, height,
+            (colors == 1) ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+        byte[] target = ((DataBufferByte) reduced.getRaster().getDataBuffer()).getData();
+
+        Raster raster = image.getRaster();
+        int[] samples = new int[width * channels];
+        for (int row = 0, pixel = 0; row < height; row++) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + row, width, 1, samples);
+            for (int column = 0, sample = 0; column < width; column++, sample += channels) {
+                if (colors == 1) {
+                    target[pixel++] = (byte) (samples[sample] >> shifts[0]);
+                } else {
+                    target[pixel++] = (byte) (samples[sample + 2] >> shifts[2]);
+                    target[pixel++] = (byte) (samples[sample + 1] >> shifts[1]);
+                    target[pixel++] = (byte) (samples[sample] >> shifts[0]);
+                }
+            }
+        }
+        return reduced;
+    }
+
+    /**
+     * Converts any other layout through its color model, a row at a time.
+     */
+    private static BufferedImage toIntRgb(BufferedImage image, boolean alpha, ImageBufferPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage converted = acquire(pool, width, height,
+            alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] target = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            image.getRGB(0, row, width, 1, target, row * width, width);
+        }
+        return converted;
+    }
+
+    private static BufferedImage acquire(ImageBufferPool pool, int width, int height, int type) {
+        return (pool == null) ? new BufferedImage(width, height, type) : pool.acquire(width, height, type);
+    }
+}
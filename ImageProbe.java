@@ -0,0 +1,190 @@
+package nmsvrscreenshotfix;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the dimensions of an image from its header (PNG IHDR, JPEG SOF)
+ * without decoding any pixel data. The reader stays open so the image can
+ * then be decoded without opening the file a second time. Readers come from
+ * the calling thread's {@link ImageCodecCache} and go back to it on close.
+ */
+class ImageProbe implements Closeable {
+    final int width;
+    final int height;
+    final String formatName;
+
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final ImageCodecCache codecs;
+    private final String extension;
+    private boolean failed = false;
+
+    private ImageProbe(ImageInputStream stream, ImageReader reader, ImageCodecCache codecs, String extension)
+            throws IOException {
+        this.stream = stream;
+        this.reader = reader;
+        this.codecs = codecs;
+        this.extension = extension;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.formatName = reader.getFormatName();
+    }
+
+    /**
+     * Opens the file with a reader matching its contents and asks it only for
+     * the size of the first image. Readers stop as soon as the header is parsed.
+     * @param imageFile file to be probed
+     * @param codecs source of the reader, the file extension picks which one is tried first
+     * @return the open probe, or null if no reader recognizes the file
+     * @throws IOException if the file cannot be read or the header is malformed
+     */
+    static ImageProbe open(File imageFile, ImageCodecCache codecs) throws IOException {
+        String fileName = imageFile.getName();
+        return open(imageFile, fileName.substring(fileName.lastIndexOf('.') + 1), codecs);
+    }
+
+    /**
+     * Same as {@link #open(File, ImageCodecCache)} for a file whose format is already known.
+     * @param imageFile file to be probed
+     * @param extension format or file extension picking which reader is tried first
+     * @param codecs source of the reader
+     * @return the open probe, or null if no reader recognizes the file
+     * @throws IOException if the file cannot be read or the header is malformed
+     */
+    static ImageProbe open(File imageFile, String extension, ImageCodecCache codecs) throws IOException {
+        ImageInputStream stream = new FileImageInputStream(imageFile);
+        ImageReader reader = null;
+        try {
+            reader = codecs.takeReader(stream, extension);
+            if (reader == null) {
+                stream.close();
+                return null;
+            }
+            reader.setInput(stream, true, true);
+            return new ImageProbe(stream, reader, codecs, extension);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (reader != null) {
+                reader.dispose();
+            }
+            stream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Estimates the memory of the decoded image from the header, using the
+     * reader's preferred image type. Nothing is decoded.
+     * @return bytes per pixel once decoded
+     * @throws IOException if the header cannot be read
+     */
+    int decodedBytesPerPixel() throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            return 4;
+        }
+        SampleModel pixel = types.next().getSampleModel(1, 1);
+        return Math.max(1, DataBuffer.getDataTypeSize(pixel.getDataType()) / 8 * pixel.getNumDataElements());
+    }
+
+    /**
+     * @return a 1 x 1 image of the reader's preferred type, whose layout the
+     *  full image is decoded into. Nothing is decoded
+     * @throws IOException if the header cannot be read
+     */
+    BufferedImage decodedLayout() throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        return types.hasNext()
+            ? types.next().createBufferedImage(1, 1)
+            : new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Decodes the full image. Images of a standard type are decoded into a
+     * buffer from the pool instead of a newly allocated one, except palette
+     * images, the pool's buffers do not carry the file's palette.
+     * @param pool pool providing the decode target
+     * @return the decoded image
+     * @throws IOException if the pixel data cannot be decoded
+     */
+    BufferedImage decode(ImageBufferPool pool) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (types.hasNext()) {
+            int imageType = types.next().getBufferedImageType();
+            if (imageType != BufferedImage.TYPE_CUSTOM && imageType != BufferedImage.TYPE_BYTE_INDEXED
+                    && imageType != BufferedImage.TYPE_BYTE_BINARY) {
+                param.setDestination(pool.acquire(width, height, imageType));
+            }
+        }
+        try {
+            return reader.read(0, param);
+        }
+        catch (IOException | RuntimeException ex) {
+            failed = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * @param rows height of the band
+     * @return an image of the reader's preferred type which {@link #readRows} decodes into
+     * @throws IOException if the header cannot be read
+     */
+    BufferedImage createBand(int rows) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            throw new IOException("Reader offers no image type");
+        }
+        return types.next().createBufferedImage(width, rows);
+    }
+
+    /**
+     * Decodes a horizontal band of the image into the top of a band image.
+     * Readers decode the image from its start up to the band, so reading an
+     * image in n bands decodes it roughly n/2 times over.
+     * @param firstRow first row of the band
+     * @param band image from {@link #createBand}, as tall as the band or taller
+     * @return the number of rows decoded
+     * @throws IOException if the pixel data cannot be decoded
+     */
+    int readRows(int firstRow, BufferedImage band) throws IOException {
+        int rows = Math.min(band.getHeight(), height - firstRow);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, firstRow, width, rows));
+        param.setDestination(band);
+        try {
+            reader.read(0, param);
+            return rows;
+        }
+        catch (IOException | RuntimeException ex) {
+            failed = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the file. The reader is reused for the next file unless decoding failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (failed) {
+            reader.dispose();
+        } else {
+            codecs.returnReader(reader, extension);
+        }
+        stream.close();
+    }
+}
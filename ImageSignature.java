@@ -0,0 +1,76 @@
+package nmsvrscreenshotfix;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Identifies PNG and JPEG files by their first bytes, so files which are not
+ * images are turned away before any decoder is looked up for them, whatever
+ * their name says. Names are checked first, without allocating, since most
+ * files in a mixed folder are rejected by their extension alone.
+ */
+final class ImageSignature {
+    /** bytes read from the start of a file, enough for both signatures */
+    static final int LENGTH = 8;
+    /** format of a file starting with the PNG signature */
+    static final String PNG = "png";
+    /** format of a file starting with a JPEG start of image marker */
+    static final String JPEG = "jpg";
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+    private static final byte[] JPEG_SIGNATURE = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+
+    private ImageSignature() {
+    }
+
+    /**
+     * @param path path of a file
+     * @return true if the name ends in .png, .jpg or .jpeg, in any case
+     */
+    static boolean hasImageExtension(String path) {
+        return endsWithIgnoreCase(path, ".png") || endsWithIgnoreCase(path, ".jpg")
+            || endsWithIgnoreCase(path, ".jpeg");
+    }
+
+    private static boolean endsWithIgnoreCase(String path, String suffix) {
+        return path.regionMatches(true, path.length() - suffix.length(), suffix, 0, suffix.length());
+    }
+
+    /**
+     * Reads the first bytes of a file and matches them against the signatures.
+     * @param file the file
+     * @param buffer at least {@link #LENGTH} bytes to read into, reused between files
+     * @return {@link #PNG}, {@link #JPEG}, or null if the file is neither
+     * @throws IOException if the file cannot be read
+     */
+    static String sniff(File file, byte[] buffer) throws IOException {
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int count;
+            while (length < LENGTH && (count = in.read(buffer, length, LENGTH - length)) > 0) {
+                length += count;
+            }
+        }
+        if (startsWith(buffer, length, PNG_SIGNATURE)) {
+            return PNG;
+        }
+        if (startsWith(buffer, length, JPEG_SIGNATURE)) {
+            return JPEG;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] buffer, int length, byte[] signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int index = 0; index < signature.length; index++) {
+            if (buffer[index] != signature[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,1271 @@
+package nmsvrscreenshotfix;
+
+import java.io.File;
+import java.awt.image.BufferedImage;
+import java.awt.Component;
+import java.awt.EventQueue;
+import static java.lang.Character.isLetterOrDigit;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Controller which handles any methods which handle program logic or state.
+ */
+class LogicController {
+    // State variables 
+    private volatile boolean isExecuting = false;
+    private volatile boolean canceled = false;
+    private volatile ConversionPipeline activePipeline;
+    private ProcessedManifest manifest;
+    
+    // File handling variables, published over JMX
+    private final BatchMetrics metrics = new BatchMetrics();
+    
+    // Progress bar updates are coalesced to at most one per interval
+    private static final long PROGRESS_INTERVAL_NANOS = 50_000_000L;
+    private long lastProgressNanos;
+    private int lastProgressValue;
+    
+    // Path variables (changed via main ProgramUI)
+    public String sourcePath;
+    public String resultPath;
+ 
+    // Behavior Settings (changed via SettingsUI)
+    public boolean shouldRename = true;
+    public boolean renameNewFile = true;
+    public String addTextToFileName = "_fix";
+    public boolean addAsPrefix = false;
+    
+    // Performance Settings
+    public int workerCount = Runtime.getRuntime().availableProcessors();
+    public boolean skipUnchangedFiles = true;
+    public boolean includeSubfolders = false;
+    public HorizontalResampler.Mode scaleMode = HorizontalResampler.Mode.AREA_AVERAGE;
+    private HorizontalResampler resampler;
+    public TransformChain transforms = TransformChain.SQUISH;
+    private TransformChain batchTransforms;
+    private TransformRenderer renderer;
+    // Files each converted image is written as, all made from one decode
+    public List<Rendition> renditions = Rendition.DEFAULT_LIST;
+    private List<Rendition> batchRenditions;
+    // files written during the batch, to the source written there, so renditions never overwrite each other
+    // and outputs or renamed originals in the source folder are not listed as sources
+    private Map<String, File> batchTargets;
+    public EncoderSettings encoderSettings = EncoderSettings.DEFAULT;
+    private EncoderSettings batchEncoderSettings;
+    public ErrorReport.Policy errorPolicy = ErrorReport.Policy.SKIP;
+    public int errorRetries = 2;
+    private ErrorReport.Policy batchErrorPolicy;
+    private int batchRetries;
+    private static final long RETRY_DELAY_MILLIS = 200;
+    public long bufferPoolBytes = Math.min(Runtime.getRuntime().maxMemory() / 4, 512L << 20);
+    private ImageBufferPool bufferPool;
+    private ImageCodecCache codecs;
+    public long memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 2;
+    private MemoryBudget memoryBudget;
+    // Images needing more pixel memory are converted in bands, 0 for a quarter of the memory budget
+    public long bandThresholdBytes = 0;
+    private long batchBandThreshold;
+    // Outputs of identical source files are reused from a store shared by all runs, off by default
+    public boolean reuseIdenticalFiles = false;
+    public String dedupCachePath = DedupCache.DEFAULT_FOLDER;
+    public long dedupCacheBytes = 1L << 30;
+    private DedupCache dedupCache;
+    private String batchOutputKey;
+    private RunReport runReport;
+    private ErrorReport errors = new ErrorReport();
+    private static final int WRITE_THREADS = 2;
+    
+    int MAX_ADD_TEXT_LENGTH = 50;
+    
+    ExecutionView myUI;
+    
+    /**
+     * Constructor: initiates paths to current directory
+     */
+    private LogicController() {
+        sourcePath = System.getProperty("user.dir");
+        resultPath = System.getProperty("user.dir");
+        // encoding happens in memory, never spill ImageIO streams to temp files
+        ImageIO.setUseCache(false);
+        metrics.register();
+    }
+    
+    /** 
+     * Singleton: ensures there is only one instance of this class.
+     */
+    private static LogicController sharedController = null;
+    public static LogicController getInstance() {
+        if(sharedController == null) {
+            sharedController = new LogicController();
+        }
+        return sharedController;
+    }
+    
+    /**
+     * Standard Java Swing launch, aesthetics, and beginning the UI thread
+     */
+    void launchUI() {
+        /* Set the Nimbus look and feel */
+        //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
+        /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
+         * For details see http://download.oracle.com/javase/tutorial/uiswing/lookandfeel/plaf.html 
+         */
+        try {
+            for (javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels()) {
+                if ("Nimbus".equals(info.getName())) {
+                    javax.swing.UIManager.setLookAndFeel(info.getClassName());
+                    break;
+                }
+            }
+        } catch (ClassNotFoundException ex) {
+            java.util.logging.Logger.getLogger(ProgramUI.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+        } catch (InstantiationException ex) {
+            java.util.logging.Logger.getLogger(ProgramUI.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+        } catch (IllegalAccessException ex) {
+            java.util.logging.Logger.getLogger(ProgramUI.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+        } catch (javax.swing.UnsupportedLookAndFeelException ex) {
+            java.util.logging.Logger.getLogger(ProgramUI.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+        }
+        //</editor-fold>
+        
+        /* Create and display the form */
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            public void run() {
+               ProgramUI window = new ProgramUI();
+               myUI = window;
+               window.setVisible(true);
+            }
+        });
+    }   
+    
+    /**
+     * Starts {@link #execute} on a background thread so the Swing event
+     * dispatch thread stays free to repaint and to accept a cancel click.
+     * The executing state is set before returning so a second click cancels.
+     */
+    public void executeInBackground() {
+        isExecuting = true;
+        new Thread(this::execute, "batch-execution").start();
+    }
+    
+    /**
+     * Iterates through files in the source directory, validates files before 
+     * allowing resizing. The folder is streamed rather than listed up front, so
+     * conversion starts with the first file while a separate pass counts the
+     * files for the progress bar. Files flow through a {@link ConversionPipeline} of
+     * filter, decode, scale, encode and write stages, each run by its own workers,
+     * while this thread reports progress to the user.
+     * Files which cannot be converted are handled by the {@link ErrorReport.Policy}
+     * and listed to the user once the batch has ended, nothing waits on the user
+     * while files are being converted.
+     * Should not be called from the event dispatch thread, UI work is handed to it.
+     */
+    public void execute() {
+        System.out.println("Starting Execution");
+        isExecuting = true;
+        canceled = false;
+        publishProgress(0, true);
+        
+        //folder of original screenshots
+        SourceWalker sourceFiles = new SourceWalker(new File(sourcePath), includeSubfolders,
+            this::isSource, new File(resultPath));
+        int totalGeneration = metrics.setTotalUnknown();
+        Thread counter = new Thread(() -> metrics.setCountedTotal(totalGeneration, sourceFiles.count()),
+            "file-counter");
+        counter.setDaemon(true);
+        counter.start();
+        
+        //disables UI
+        onUI(() -> myUI.toggleUI());
+        
+        if(!shouldRename && (sourcePath.equals(resultPath))) {
+            onUI(() -> myUI.warningReplacingFiles());
+        }
+        
+        convertAll(sourceFiles);
+        
+        if (!errors.isEmpty()) {
+            ErrorReport batchErrors = errors;
+            onUI(() -> myUI.errorReport(batchErrors));
+        }
+        String report = runReport.toText();
+        onUI(() -> myUI.runReport(report));
+        int converted = metrics.getFilesConverted();
+        if(canceled) {
+            onUI(() -> myUI.cancelPopup(converted));
+            canceled = false;
+            publishProgress(0, true);
+        } else {
+            onUI(() -> myUI.completePopup(converted));
+        }
+        
+        isExecuting = false;
+        onUI(() -> myUI.toggleUI());
+        System.out.println("Finished Execution");
+    }
+    
+    /**
+     * Converts files which appeared in a watched source folder. Works like
+     * {@link #execute} but without the start and completion popups, since it
+     * runs once per burst of new files.
+     * @param newFiles the files to be checked and converted if applicable
+     * @return false if the batch was canceled
+     * @see FolderWatcher
+     */
+    public boolean convertNewFiles(List<File> newFiles) {
+        isExecuting = true;
+        canceled = false;
+        metrics.setTotalFiles(newFiles.size());
+        convertAll(newFiles);
+        boolean completed = !canceled;
+        canceled = false;
+        isExecuting = false;
+        return completed;
+    }
+    
+    /**
+     * Runs the files through the conversion pipeline and reports every outcome.
+     * The total for the progress bar may still be unknown (-1) when this starts.
+     * @param files files from the source folder, in order
+     */
+    private void convertAll(Iterable<File> files) {
+        //files handled by previous runs into the same result folder
+        manifest = ProcessedManifest.load(new File(resultPath), getManifestSettingsKey(), skipUnchangedFiles);
+        resampler = new HorizontalResampler(scaleMode);
+        renderer = new TransformRenderer(resampler);
+        batchTransforms = transforms;
+        batchRenditions = renditions;
+        batchTargets = new ConcurrentHashMap<>();
+        bufferPool = new ImageBufferPool(bufferPoolBytes);
+        codecs = new ImageCodecCache();
+        memoryBudget = new MemoryBudget(memoryBudgetBytes);
+        batchBandThreshold = (bandThresholdBytes > 0) ? bandThresholdBytes : memoryBudgetBytes / 4;
+        batchEncoderSettings = encoderSettings;
+        batchOutputKey = getOutputSettingsKey();
+        dedupCache = reuseIdenticalFiles ? DedupCache.open(new File(dedupCachePath), dedupCacheBytes) : null;
+        batchErrorPolicy = errorPolicy;
+        batchRetries = Math.max(0, errorRetries);
+        errors = new ErrorReport();
+        
+        int threads = Math.max(1, workerCount);
+        runReport = new RunReport(threads);
+        ConversionPipeline pipeline = new ConversionPipeline(Math.max(2, threads));
+        pipeline.addStage("filter", threads, this::filterStage);
+        pipeline.addStage("decode", threads, this::decodeStage);
+        pipeline.addStage("scale", threads, this::scaleStage);
+        pipeline.addStage("encode", threads, this::encodeStage);
+        pipeline.addStage("write", WRITE_THREADS, this::writeStage);
+        activePipeline = pipeline;
+        metrics.startBatch(pipeline, bufferPool, memoryBudget);
+        if (canceled) {
+            pipeline.cancel();
+        }
+        pipeline.start();
+        pipeline.feed(runReport.timeListing(files));
+        
+        int filesFinished = 0;
+        boolean drained = false;
+        try {
+            ConversionJob job;
+            while ((job = pipeline.takeFinished()) != null) {
+                filesFinished++;
+                reportOutcome(job);
+                publishProgress(metrics.getProgressPercent(), false);
+            }
+            drained = true;
+        }
+        catch (InterruptedException ex) {
+            cancelExecution();
+            Thread.currentThread().interrupt();
+        }
+        metrics.setTotalFiles(filesFinished);
+        if (!canceled) {
+            publishProgress(metrics.getProgressPercent(), true);
+        }
+        activePipeline = null;
+        metrics.endBatch();
+        runReport.finish(filesFinished, metrics.getFilesConverted());
+        System.out.print(pipeline.statsReport());
+        System.out.print(runReport.toText());
+        try {
+            runReport.writeFiles(new File(resultPath));
+        }
+        catch (IOException ex) {
+            System.err.println(">> Could not write run report: " + ex.getMessage());
+        }
+        System.out.print(bufferPool.statsReport());
+        System.out.print(memoryBudget.statsReport());
+        memoryBudget = null;
+        bufferPool = null;
+        if (drained) {
+            // workers may still hold codecs after an interrupt, leave those to the GC
+            codecs.dispose();
+        }
+        codecs = null;
+        try {
+            manifest.save();
+        }
+        catch (IOException ex) {
+            System.err.println(">> Could not save manifest: " + ex.getMessage());
+        }
+        if (dedupCache != null) {
+            // jobs never taken from an interrupted pipeline still hold their pins
+            dedupCache.unpinAll();
+            System.out.print(dedupCache.statsReport());
+            try {
+                dedupCache.save();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Could not save dedup cache: " + ex.getMessage());
+            }
+            dedupCache.close();
+            dedupCache = null;
+        }
+    }
+    
+    /**
+     * Pipeline stage: turns away files which cannot be converted before any
+     * decoder is created for them. Files are checked by name, then against
+     * the manifest, then by the signature in their first bytes, so a file
+     * named like an image which is none is rejected without a reader lookup.
+     * @param job the job of the file from the source folder
+     * @return true if the file is a PNG or JPEG which may need converting
+     */
+    private boolean filterStage(ConversionJob job) {
+        File curFile = job.source;
+        if (!isImage(curFile.getPath()) || curFile.isDirectory()) {
+            return false;
+        }
+        if (manifest.isUnchanged(curFile)) {
+            job.status = ConversionJob.Status.UNCHANGED;
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            job.contentFormat = ImageSignature.sniff(curFile, codecs.signatureBuffer());
+        }
+        catch (IOException ex) {
+            // reading is reported, and retried, by the decode stage
+            return true;
+        }
+        runReport.record(RunReport.Stage.FILTER, System.nanoTime() - start, ImageSignature.LENGTH, 0);
+        if (job.contentFormat == null) {
+            System.out.println(">file name: " + curFile.getName());
+            System.out.println(">> Not a PNG or JPEG file, skipping");
+            job.status = ConversionJob.Status.CORRUPT;
+            job.errorMessage = "not a PNG or JPEG file";
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Pipeline stage: decodes a single file if applicable.
+     * Only the image header is read to decide if the file needs resizing,
+     * pixel data is decoded only for images which will actually be squished.
+     * The decode target comes from the buffer pool.
+     * @param job the job of a candidate image
+     * @return true if the decoded image should be squished
+     */
+    private boolean decodeStage(ConversionJob job) {
+        File curFile = job.source;
+        System.out.println(">file name: " + curFile.getName());
+        for (job.attempts = 1; ; job.attempts++) {
+            try {
+                return probeAndDecode(job);
+            }
+            catch (IOException ex) {
+                System.err.println(">> Caught IOException on '" + curFile.getPath() + "':\n  " + ex.getMessage());
+                if (!retryAfter(job.attempts)) {
+                    job.status = ConversionJob.Status.READ_ERROR;
+                    job.errorMessage = ex.getMessage();
+                    return false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the header of a file and decodes it if it needs resizing. Files
+     * converted before under the same settings are taken from the dedup cache
+     * without decoding, images above the band threshold with a single
+     * rendition are converted in bands right away.
+     * @param job the job of the file from the source folder
+     * @return true if the decoded image should be squished, or has been converted
+     * @throws IOException if the file cannot be read
+     */
+    private boolean probeAndDecode(ConversionJob job) throws IOException {
+        File curFile = job.source;
+        long start = System.nanoTime();
+        try (ImageProbe header = (job.contentFormat == null)
+                ? ImageProbe.open(curFile, codecs) : ImageProbe.open(curFile, job.contentFormat, codecs)) {
+            runReport.record(RunReport.Stage.PROBE, System.nanoTime() - start, 0, 0);
+            job.header = header;
+            if (header == null) {
+                System.out.println(">> No reader recognizes the file (likely corrupt)");
+                job.status = ConversionJob.Status.CORRUPT;
+                job.errorMessage = "no image reader recognizes the file";
+                return false;
+            }
+            TransformChain.Mapping mapping = batchTransforms.mapFor(header.width, header.height);
+            if (!shouldTransform(mapping, header.width, header.height)) {
+                manifest.record(curFile, null);
+                return false;
+            }
+            job.outputs = createOutputs(job.source);
+            if (dedupCache != null && findConvertedCopies(job)) {
+                return true;
+            }
+            // the decoded image, its expanded copy if the resampler cannot use it as is,
+            // the renditions still to be made in the expanded layout, and the parallel PNG scratch
+            long pixels = (long) header.width * header.height;
+            long imageBytes = header.decodedBytesPerPixel() * pixels;
+            BufferedImage decodedLayout = header.decodedLayout();
+            BufferedImage workingLayout = ImageNormalizer.forResampling(decodedLayout, null);
+            long bytesPerPixel = ImageBufferPool.sizeOf(workingLayout);
+            if (workingLayout != decodedLayout) {
+                imageBytes += bytesPerPixel * pixels;
+            }
+            for (ConversionJob.Output output : job.outputs) {
+                if (!output.isConverted()) {
+                    TransformChain.Mapping rendition = output.rendition.mapFor(mapping);
+                    imageBytes += bytesPerPixel * rendition.width() * rendition.height();
+                    if (output.rendition.settingsFor(batchEncoderSettings).parallelPng
+                            && output.formatName.equalsIgnoreCase("png") && ParallelPngWriter.supports(workingLayout)) {
+                        imageBytes += ParallelPngWriter.scratchBytes(rendition.width(), rendition.height(),
+                            workingLayout.getColorModel().getNumComponents());
+                    }
+                }
+            }
+            if (imageBytes > batchBandThreshold && job.outputs.size() == 1 && !job.isConverted()) {
+                TransformChain.Mapping only = job.outputs.get(0).rendition.mapFor(mapping);
+                if (only.isRowLocal(header.height) && convertInBands(job, header, only)) {
+                    return true;
+                }
+            }
+            reserveMemory(job, imageBytes);
+            start = System.nanoTime();
+            boolean decoded = false;
+            try {
+                job.decoded = header.decode(bufferPool);
+                decoded = true;
+            }
+            finally {
+                if (!decoded) {
+                    releaseMemory(job);
+                }
+            }
+            job.imageBytes = ImageBufferPool.sizeOf(job.decoded);
+            metrics.addImageBytes(job.imageBytes);
+            runReport.record(RunReport.Stage.DECODE, System.nanoTime() - start, curFile.length(), 0);
+            return true;
+        }
+    }
+    
+    /**
+     * @param source a file which needs converting
+     * @return one output per rendition of the batch, in the batch's order
+     */
+    private List<ConversionJob.Output> createOutputs(File source) {
+        String sourceFormat = getOutputFormat(source);
+        List<ConversionJob.Output> outputs = new ArrayList<>(batchRenditions.size());
+        for (Rendition rendition : batchRenditions) {
+            outputs.add(new ConversionJob.Output(rendition, rendition.formatFor(sourceFormat)));
+        }
+        return outputs;
+    }
+    
+    /**
+     * Hashes the file's contents and looks the converted copy of each
+     * rendition up in the dedup cache. The keys are kept on the outputs so the
+     * write stage can store them. Renditions found are not made again.
+     * @param job the job of an image which needs resizing
+     * @return true if converted copies of all renditions were found, the
+     *  scale and encode stages then pass them on
+     * @throws IOException if the file cannot be read
+     */
+    private boolean findConvertedCopies(ConversionJob job) throws IOException {
+        long start = System.nanoTime();
+        long size = job.source.length();
+        long hash = ContentHash.of(job.source, codecs.hashBuffer());
+        runReport.record(RunReport.Stage.HASH, System.nanoTime() - start, size, 0);
+        for (ConversionJob.Output output : job.outputs) {
+            output.contentKey = DedupCache.key(hash, size, output.formatName, getOutputSettingsKey(output.rendition));
+            output.cachedOutput = dedupCache.lookup(output.contentKey);
+            output.pinned = (output.cachedOutput != null);
+        }
+        if (!job.isConverted()) {
+            return false;
+        }
+        System.out.println(">> Identical to a file converted before, reusing its output");
+        return true;
+    }
+    
+    /**
+     * Converts an image band by band straight to its encoded form, so the
+     * scale and encode stages pass it on untouched. Only the bands, and the
+     * squished image when its format cannot be written row by row, are
+     * reserved from the memory budget.
+     * @param job the job about to be decoded
+     * @param header the open header of its file
+     * @param mapping the batch's transforms and only rendition for the image, row local
+     * @return false if the image cannot be converted in bands and has to be decoded whole
+     * @throws IOException if the image cannot be decoded or encoded
+     */
+    private boolean convertInBands(ConversionJob job, ImageProbe header, TransformChain.Mapping mapping)
+            throws IOException {
+        ConversionJob.Output output = job.outputs.get(0);
+        BandedConversion banded = BandedConversion.open(job.source, header, output.formatName, mapping);
+        if (banded == null) {
+            return false;
+        }
+        try {
+            reserveMemory(job, banded.peakBytes());
+            System.out.println(">> Converting in bands of " + banded.bandRows + " rows");
+            long start = System.nanoTime();
+            output.encoded = banded.convert(resampler, output.rendition.settingsFor(batchEncoderSettings), codecs);
+            runReport.record(RunReport.Stage.BANDED, System.nanoTime() - start, job.source.length(),
+                output.encoded.length);
+            return true;
+        }
+        finally {
+            banded.close();
+            releaseMemory(job);
+        }
+    }
+    
+    /**
+     * Waits until the batch's memory budget has room for the pixels of an
+     * image, estimated from its header. The reservation is held until the
+     * job drops its pixels.
+     * @param job the job about to be decoded
+     * @param bytes estimated pixel memory
+     */
+    private void reserveMemory(ConversionJob job, long bytes) {
+        if (memoryBudget.exceedsBudget(bytes)) {
+            System.out.println(">> Needs " + (bytes >> 20) + " MB, more than the memory budget, decoding it alone");
+        }
+        memoryBudget.acquire(bytes);
+        job.reservedBytes = bytes;
+    }
+    
+    /**
+     * Gives back the job's memory reservation, if it holds one.
+     * @param job a job which no longer holds decoded or squished pixels
+     */
+    private void releaseMemory(ConversionJob job) {
+        memoryBudget.release(job.reservedBytes);
+        job.reservedBytes = 0;
+    }
+    
+    /**
+     * Decides if a failed read or write is tried again, by the batch's error
+     * policy, and waits a little longer after each failure.
+     * @param attempts attempts made so far
+     * @return true to try again
+     */
+    private boolean retryAfter(int attempts) {
+        if (batchErrorPolicy != ErrorReport.Policy.RETRY || attempts > batchRetries || canceled) {
+            return false;
+        }
+        System.err.println(">> Retrying (attempt " + (attempts + 1) + " of " + (batchRetries + 1) + ")");
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS << (attempts - 1));
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Pipeline stage: applies the batch's transforms, by default squishing the
+     * image to a 1:1 aspect ratio by changing the width, in a single pass.
+     * Layouts the resampler cannot work on are normalized first, see
+     * {@link ImageNormalizer#forResampling}. Renditions are made largest
+     * first: each is scaled from the smallest rendition made before it which
+     * is at least as large, or from the original if there is none, and
+     * renditions of the same size share their pixels. The decoded original
+     * goes back to the buffer pool afterwards.
+     * @param job the job holding the decoded original image
+     * @return true, the renditions are always passed on for encoding
+     */
+    private boolean scaleStage(ConversionJob job) {
+        if (job.isConverted()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        BufferedImage normalized = ImageNormalizer.forResampling(job.decoded, bufferPool);
+        if (normalized != job.decoded) {
+            bufferPool.release(job.decoded);
+            job.decoded = normalized;
+        }
+        TransformChain.Mapping transformed = batchTransforms.mapFor(job.decoded.getWidth(), job.decoded.getHeight());
+        List<ConversionJob.Output> largestFirst = new ArrayList<>();
+        for (ConversionJob.Output output : job.outputs) {
+            if (!output.isConverted()) {
+                largestFirst.add(output);
+            }
+        }
+        largestFirst.sort(Comparator.comparingLong((ConversionJob.Output output) -> {
+            TransformChain.Mapping mapping = output.rendition.mapFor(transformed);
+            return (long) mapping.width() * mapping.height();
+        }).reversed());
+        
+        List<BufferedImage> rendered = new ArrayList<>();
+        long scaledBytes = 0;
+        for (ConversionJob.Output output : largestFirst) {
+            TransformChain.Mapping mapping = output.rendition.mapFor(transformed);
+            BufferedImage intermediate = findCovering(rendered, mapping.width(), mapping.height());
+            if (intermediate == null) {
+                output.scaled = renderer.render(job.decoded, mapping, bufferPool);
+            } else if (intermediate.getWidth() == mapping.width() && intermediate.getHeight() == mapping.height()) {
+                output.scaled = intermediate;
+                continue;
+            } else {
+                output.scaled = renderer.render(intermediate, TransformChain.Mapping.scaling(intermediate.getWidth(),
+                    intermediate.getHeight(), mapping.width(), mapping.height()), bufferPool);
+            }
+            rendered.add(output.scaled);
+            scaledBytes += ImageBufferPool.sizeOf(output.scaled);
+        }
+        runReport.record(RunReport.Stage.SCALE, System.nanoTime() - start,
+            ImageBufferPool.sizeOf(job.decoded), scaledBytes);
+        metrics.addImageBytes(scaledBytes - job.imageBytes);
+        job.imageBytes = scaledBytes;
+        bufferPool.release(job.decoded);
+        job.decoded = null;
+        return true;
+    }
+    
+    /**
+     * @param rendered images made so far, largest first
+     * @param width width needed
+     * @param height height needed
+     * @return the smallest of the images at least width x height, or null if none is
+     */
+    private static BufferedImage findCovering(List<BufferedImage> rendered, int width, int height) {
+        for (int index = rendered.size() - 1; index >= 0; index--) {
+            BufferedImage image = rendered.get(index);
+            if (image.getWidth() >= width && image.getHeight() >= height) {
+                return image;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Pipeline stage: encodes each squished rendition in memory, in the format
+     * of the rendition or else of the original file's extension, with the
+     * batch's encoder settings and the rendition's quality. The squished
+     * images go back to the buffer pool afterwards.
+     * @param job the job holding the squished renditions
+     * @return true if all renditions were encoded and can be written
+     */
+    private boolean encodeStage(ConversionJob job) {
+        if (job.isConverted()) {
+            return true;
+        }
+        String fileName = job.source.getName();
+        long start = System.nanoTime();
+        try {
+            long encodedBytes = 0;
+            for (ConversionJob.Output output : job.outputs) {
+                if (!output.isConverted()) {
+                    output.encoded = output.rendition.settingsFor(batchEncoderSettings)
+                        .encode(output.scaled, output.formatName, codecs);
+                    encodedBytes += output.encoded.length;
+                }
+            }
+            runReport.record(RunReport.Stage.ENCODE, System.nanoTime() - start, job.imageBytes, encodedBytes);
+            return true;
+        }
+        catch (IOException ex) {
+            System.err.println(">> Error encoding " + fileName + ": " + ex.getMessage());
+            job.status = ConversionJob.Status.WRITE_ERROR;
+            job.errorMessage = "encoding failed: " + ex.getMessage();
+            return false;
+        }
+        finally {
+            releaseRenditions(job);
+            metrics.addImageBytes(-job.imageBytes);
+            job.imageBytes = 0;
+            releaseMemory(job);
+        }
+    }
+    
+    /**
+     * Gives the squished renditions back to the buffer pool, once each.
+     * @param job the job holding them
+     */
+    private void releaseRenditions(ConversionJob job) {
+        List<BufferedImage> released = new ArrayList<>();
+        for (ConversionJob.Output output : job.outputs) {
+            BufferedImage image = output.scaled;
+            output.scaled = null;
+            if (image != null && released.stream().noneMatch(other -> other == image)) {
+                bufferPool.release(image);
+                released.add(image);
+            }
+        }
+    }
+    
+    /**
+     * @param source a file from the source folder
+     * @return format of its converted file, given by the file extension
+     */
+    private static String getOutputFormat(File source) {
+        String fileName = source.getName();
+        return fileName.substring(fileName.lastIndexOf('.') + 1);
+    }
+    
+    /**
+     * Pipeline stage: applies the rename settings and writes the encoded image
+     * to the result folder. Renaming an original is journaled first, so an
+     * original renamed by an interrupted run is converted under its original
+     * name and not renamed a second time. Each rendition is written next to
+     * the converted file, with its suffix and extension, unless another file
+     * of the batch was written under that name, e.g. a.jpg and the jpg
+     * rendition of a.png. Outputs reused from
+     * the dedup cache are linked or copied instead, new outputs are added to it.
+     * @param job the job holding the encoded renditions, or reused outputs
+     * @return false, the job is finished
+     */
+    private boolean writeStage(ConversionJob job) {
+        long start = System.nanoTime();
+        File originalFile = job.source;
+        String resultFolder = getResultFolder(originalFile);
+        File newFile = new File(resultFolder +"/"+ originalFile.getName());
+        if(shouldRename) {
+            if (renameNewFile) {
+                newFile = modifyFilePath(resultFolder,originalFile.getName());
+            }
+            else {
+                File interruptedOriginal = manifest.getRenamedOriginal(originalFile);
+                if (interruptedOriginal != null) {
+                    newFile = new File(resultFolder + "/" + interruptedOriginal.getName());
+                }
+                else {
+                    File renamedOriginal = modifyFilePath(originalFile.getParent(),originalFile.getName());
+                    batchTargets.put(targetKey(renamedOriginal), job.source);
+                    manifest.recordRename(originalFile, renamedOriginal);
+                    if (originalFile.renameTo(renamedOriginal)) {
+                        originalFile = renamedOriginal;
+                    }
+                }
+            }
+        }
+        
+        for (ConversionJob.Output output : job.outputs) {
+            output.target = getRenditionFile(newFile, output);
+            File claimedBy = batchTargets.putIfAbsent(targetKey(output.target), job.source);
+            if (claimedBy != null && !claimedBy.equals(job.source)) {
+                System.err.println(">> " + output.target.getName() + " was already written for " + claimedBy.getName());
+                job.status = ConversionJob.Status.WRITE_ERROR;
+                job.errorMessage = output.target.getName() + " was already written for " + claimedBy.getName()
+                    + ", give the rendition a different suffix";
+                return false;
+            }
+        }
+        long bytesWritten = 0;
+        for (ConversionJob.Output output : job.outputs) {
+            if (!writeOutput(job, output)) {
+                return false;
+            }
+            bytesWritten += output.target.length();
+        }
+        job.status = ConversionJob.Status.CONVERTED;
+        manifest.record(originalFile, job.outputs.get(0).target);
+        runReport.record(RunReport.Stage.WRITE, System.nanoTime() - start, 0, bytesWritten);
+        System.out.println(">> Converted");
+        return false;
+    }
+    
+    /**
+     * Writes one rendition of a job, trying again by the batch's error policy.
+     * @param job the job the rendition belongs to
+     * @param output the rendition, with its target set
+     * @return true if it was written, otherwise the job holds the error
+     */
+    private boolean writeOutput(ConversionJob job, ConversionJob.Output output) {
+        File newFile = output.target;
+        try {
+            for (job.attempts = 1; ; job.attempts++) {
+                try {
+                    // write to output file
+                    newFile.getParentFile().mkdirs();
+                    if (output.cachedOutput != null) {
+                        DedupCache.linkOrCopy(output.cachedOutput, newFile);
+                    }
+                    else {
+                        // an earlier output may be a link into the dedup cache, never write through it
+                        Files.deleteIfExists(newFile.toPath());
+                        Files.write(newFile.toPath(), output.encoded);
+                        if (dedupCache != null && output.contentKey != null) {
+                            dedupCache.store(output.contentKey, newFile);
+                        }
+                    }
+                    return true;
+                }
+                catch(Exception ex) {
+                    System.err.println(">> Error writing to result folder " + ex);
+                    if (!retryAfter(job.attempts)) {
+                        job.status = ConversionJob.Status.WRITE_ERROR;
+                        job.errorMessage = ex.toString();
+                        return false;
+                    }
+                }
+            }
+        }
+        finally {
+            releasePin(output);
+        }
+    }
+    
+    /**
+     * Names the file of a rendition after the converted file, adding the
+     * rendition's suffix like {@link #getRename} and the extension of its format.
+     * @param converted the converted file as named by the rename settings
+     * @param output the rendition
+     * @return the file the rendition is written to
+     */
+    private File getRenditionFile(File converted, ConversionJob.Output output) {
+        String name = converted.getName();
+        if (!output.rendition.suffix.isEmpty()) {
+            name = getRename(name, output.rendition.suffix, false);
+        }
+        if (!output.formatName.equals(getOutputFormat(converted))) {
+            name = name.substring(0, name.lastIndexOf('.') + 1) + output.formatName;
+        }
+        return new File(converted.getParentFile(), name);
+    }
+    
+    /**
+     * Mirrors the subfolder of a source file inside the result folder.
+     * @param originalFile a file from the source folder or one of its subfolders
+     * @return path of the folder the converted file belongs in
+     */
+    private String getResultFolder(File originalFile) {
+        Path sourceRoot = Paths.get(sourcePath).toAbsolutePath().normalize();
+        Path parent = originalFile.getAbsoluteFile().toPath().normalize().getParent();
+        if (parent == null || parent.equals(sourceRoot) || !parent.startsWith(sourceRoot)) {
+            return resultPath;
+        }
+        return resultPath + "/" + sourceRoot.relativize(parent).toString();
+    }
+    
+    /**
+     * Counts the outcome of a finished file and collects it if it failed.
+     * Under the fail-fast policy the first failure cancels the batch.
+     * @param job the finished job
+     */
+    private void reportOutcome(ConversionJob job) {
+        // images and cache entries held by a failed or canceled job
+        metrics.addImageBytes(-job.imageBytes);
+        releaseMemory(job);
+        if (job.outputs != null) {
+            for (ConversionJob.Output output : job.outputs) {
+                releasePin(output);
+            }
+        }
+        metrics.recordFinished(job.status);
+        switch (job.status) {
+            case FAILED:
+                System.err.println(">> Unexpected error during conversion of '" + job.source.getName() + "': " + job.error);
+                collectError(job);
+                break;
+            case READ_ERROR:
+            case CORRUPT:
+            case WRITE_ERROR:
+                collectError(job);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Allows the dedup cache to evict an entry the output was found in again.
+     * @param output an output which may have been found in the dedup cache
+     */
+    private void releasePin(ConversionJob.Output output) {
+        if (output.pinned) {
+            output.pinned = false;
+            dedupCache.unpin(output.contentKey);
+        }
+    }
+    
+    /**
+     * Adds a failed file to the error report. Under the fail-fast policy the
+     * first one cancels the batch.
+     * @param job the failed job
+     */
+    private void collectError(ConversionJob job) {
+        errors.add(job);
+        if (batchErrorPolicy == ErrorReport.Policy.FAIL_FAST && !canceled) {
+            System.err.println(">> Stopping at the first error");
+            errors.stopEarly();
+            cancelExecution();
+        }
+    }
+    
+    /**
+     * Sends a new progress bar value to the UI. Updates are dropped if one was
+     * published less than {@link #PROGRESS_INTERVAL_NANOS} ago, so large batches
+     * of small files do not flood the event queue.
+     * @param value percentage the progress bar should be filled. (max 100, -1 if unknown)
+     * @param force true to publish regardless of the interval, e.g. at start or end
+     */
+    private void publishProgress(int value, boolean force) {
+        long now = System.nanoTime();
+        if (value == lastProgressValue && !force) {
+            return;
+        }
+        if (force || now - lastProgressNanos >= PROGRESS_INTERVAL_NANOS) {
+            lastProgressNanos = now;
+            lastProgressValue = value;
+            onUILater(() -> myUI.updateProgressBar(value));
+        }
+    }
+    
+    /**
+     * Runs a UI task on the event dispatch thread and waits for it to finish,
+     * so popups that ask the user a question still pause the batch.
+     * Views which are not Swing components are called directly.
+     * @param uiTask the task which interacts with the view
+     */
+    private void onUI(Runnable uiTask) {
+        if (!(myUI instanceof Component) || EventQueue.isDispatchThread()) {
+            uiTask.run();
+            return;
+        }
+        try {
+            EventQueue.invokeAndWait(uiTask);
+        }
+        catch (InterruptedException ex) {
+            canceled = true;
+            Thread.currentThread().interrupt();
+        }
+        catch (InvocationTargetException ex) {
+            System.err.println(">> Error updating the UI: " + ex.getCause());
+        }
+    }
+    
+    /**
+     * Runs a UI task on the event dispatch thread without waiting for it.
+     * Views which are not Swing components are called directly.
+     * @param uiTask the task which interacts with the view
+     */
+    private void onUILater(Runnable uiTask) {
+        if (myUI instanceof Component) {
+            EventQueue.invokeLater(uiTask);
+        } else {
+            uiTask.run();
+        }
+    }
+
+    /**
+     * Describes the settings which decide what a source file turns into, so a
+     * manifest written under different settings is not trusted.
+     * @return settings description stored in the manifest
+     */
+    private String getManifestSettingsKey() {
+        return "rename=" + shouldRename + " new=" + renameNewFile + " prefix=" + addAsPrefix + " text=" + addTextToFileName
+            + " scale=" + scaleMode + " " + encoderSettings.key() + (transforms.isSquishOnly() ? "" : " transform=" + transforms.key())
+            + (hasOnlyFullRendition() ? "" : " renditions=" + Rendition.key(renditions));
+    }
+    
+    /**
+     * Describes the settings which decide the pixels and encoding of a
+     * converted file, for the dedup cache key.
+     * @return settings description
+     */
+    private String getOutputSettingsKey() {
+        return "scale=" + scaleMode + " transform=" + transforms.key() + " " + encoderSettings.key();
+    }
+    
+    /**
+     * @param rendition one of the batch's renditions
+     * @return settings description of the rendition's files, for the dedup cache key
+     */
+    private String getOutputSettingsKey(Rendition rendition) {
+        return rendition.isFull() ? batchOutputKey : batchOutputKey + " rendition=" + rendition.key();
+    }
+    
+    /**
+     * @return true if each image is written once, as converted
+     */
+    private boolean hasOnlyFullRendition() {
+        return renditions.size() == 1 && renditions.get(0).isFull();
+    }
+    
+    /**
+     * State variable setter, allows other classes to cancel execution
+     */
+    public void cancelExecution() {
+        canceled = true;
+        ConversionPipeline pipeline = activePipeline;
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+    }
+    
+    /**
+     * @return number of candidate images found during the last execution,
+     *  or -1 while they are still being counted
+     */
+    public int getTotalFiles() {
+        return metrics.getTotalFiles();
+    }
+    
+    /**
+     * @param status the outcome to count
+     * @return number of files which finished with the given status during the last execution
+     */
+    public int getOutcomeCount(ConversionJob.Status status) {
+        return metrics.getOutcomeCount(status);
+    }
+    
+    /**
+     * Getter for state variable isExecuting
+     * @return true if the program is converting files.
+     */
+    public boolean getIsExecuting() {
+        return isExecuting;
+    }
+    
+    /**
+     * Generates a string which attempts to explain to the user the consequences 
+     * of their behavior setting choices.
+     * @return String representing the current user selected settings
+     */
+    public String getCurrentBehaviorString() {
+        String behavior = "";
+        if(!shouldRename && (sourcePath.equals(resultPath))) {
+            behavior += "• Replacing originals with converted screenshots";
+        }
+        else {
+            behavior += "• Making copies of converted screenshots";
+        }
+        
+        behavior +="\n";
+        if(includeSubfolders) {
+            behavior += "• Including subfolders, mirrored in the result folder\n";
+        }
+        if(!encoderSettings.equals(EncoderSettings.DEFAULT)) {
+            behavior += "• Encoding " + encoderSettings.describe() + "\n";
+        }
+        if(!hasOnlyFullRendition()) {
+            behavior += "• Writing each image as " + renditions.size() + " renditions: "
+                + Rendition.key(renditions).replace(";", "; ") + "\n";
+        }
+        if(errorPolicy == ErrorReport.Policy.FAIL_FAST) {
+            behavior += "• Stopping at the first file which fails\n";
+        } else if(errorPolicy == ErrorReport.Policy.RETRY) {
+            behavior += "• Retrying failed reads and writes " + errorRetries + " times\n";
+        }
+        if(shouldRename) {
+            if(addAsPrefix) {
+                behavior += "• Adding prefix ";
+            }
+            else {
+                behavior += "• Adding suffix ";
+            }
+            behavior += "\""+addTextToFileName+"\" to ";
+            if(renameNewFile) {
+                behavior += "converted image";
+            }
+            else {
+                behavior += "original image";
+            }
+            behavior += "\n";
+            behavior += "• " + getExampleRename();
+        }
+        return behavior;
+    }
+    
+    /**
+     * based on settings, adds a prefix or suffix onto the file name
+     * @param oldName the name of the original file before conversion
+     * @return the modified file name to be used for the new image
+     */
+    private String getRename(String oldName) {
+        return getRename(oldName, addTextToFileName, addAsPrefix);
+    }
+    
+    /**
+     * adds a prefix or suffix onto the file name, keeping the extension
+     * @param oldName the name of the file
+     * @param text the text to be added
+     * @param asPrefix true to add the text in front of the name
+     * @return the modified file name
+     */
+    private static String getRename(String oldName, String text, boolean asPrefix) {
+        int dotIndex = oldName.lastIndexOf('.');
+        
+        String name = oldName.substring(0, dotIndex);
+        String ext = oldName.substring(dotIndex);
+        
+        return asPrefix ? (text+name+ext) : (name+text+ext);
+    }
+    
+    /**
+     * Based on settings, creates an string showing an example renaming
+     * Helper function for {@link getCurrentBehaviorString}
+     * @return string explaining what the rename will look like
+     */
+    private String getExampleRename() {
+        String exampleName = renameNewFile ? "converted.png" : "original.png";
+        return ("Ex: \"" + exampleName + "\" -> \"" + getRename(exampleName) +"\"");
+    }  
+    
+    /**
+     * Concatenates parent folder path with the file name 
+     * @param parentPath path of the folder holding the file
+     * @param fileName the name of the file
+     * @return concatenated file path
+     */
+    private File modifyFilePath(String parentPath, String fileName) {
+        return (new File(parentPath + "/" + getRename(fileName)));
+    }
+    
+    /**
+     * Determines if a file is a basic image type
+     * @param path file path of image
+     * @return true if extension is png jpg or jpeg
+     */
+    boolean isImage(String path) {
+        return ImageSignature.hasImageExtension(path);
+    }
+    
+    /**
+     * @param file a file written or renamed by the batch
+     * @return its key in batchTargets, the path the source walker lists it under
+     */
+    private static String targetKey(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+    
+    /**
+     * Determines if a listed or watched file is a source: an image which
+     * neither the last batch nor an earlier one converted another file into.
+     * Without this, outputs written into the source folder would be converted
+     * again. A file converted in place stays a source.
+     * @param path absolute, normalized path of the file
+     * @return true if the file is an image to be processed
+     */
+    boolean isSource(String path) {
+        if (!isImage(path)) {
+            return false;
+        }
+        Map<String, File> targets = batchTargets;
+        File writtenFor = (targets == null) ? null : targets.get(path);
+        if (writtenFor != null && !targetKey(writtenFor).equals(path)) {
+            return false;
+        }
+        ProcessedManifest records = manifest;
+        return records == null || !records.isOutput(path);
+    }
+    
+    /**
+     * Determines if an image should be converted: the batch's transforms
+     * must change it. With the default squish that means the width must be
+     * greater than the height.
+     * @param mapping the batch's transforms for the image
+     * @param width image width
+     * @param height image height
+     * @return true if the transforms change the image
+     */
+    private boolean shouldTransform(TransformChain.Mapping mapping, int width, int height) {
+        if (!mapping.isIdentity(width, height)) {
+            return true;
+        } else if (!batchTransforms.isSquishOnly()) {
+            System.out.println(">> The transforms leave the image unchanged");
+        } else if (width == height) {
+            System.out.println(">> Already 1:1 aspect ratio");
+        } else {
+            System.out.println(">> Height is greater than width");
+        }
+        return false;
+    }
+    
+    /**
+     * For generating the path of the output image
+     * @param inputPath Path of the original input image
+     * @param dotIndex the index of the dot in the input path
+     * @return the final output path
+     */
+    public String generateOutputPath(String inputPath, int dotIndex) {
+        return inputPath.substring(0, dotIndex) + addTextToFileName + inputPath.substring(dotIndex);
+    }
+    
+    /**
+     * Reads the transforms typed by the user. Triggers a warning popup if they are invalid.
+     * @param spec transforms separated by commas, see {@link TransformChain#parse}
+     * @return the transform chain, or null if there is a problem with it
+     */
+    public TransformChain parseTransforms(String spec) {
+        try {
+            return TransformChain.parse(spec);
+        }
+        catch (IllegalArgumentException ex) {
+            myUI.warningInvalidTransform(ex.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Validates text that will be added to file name. Triggers warning popups if false.
+     * @param phrase the text addition to be tested
+     * @return true if there is no problem with text
+     */
+    public boolean isValidTextAddition(String phrase) {
+        if(phrase.length() == 0) {
+            myUI.warningEmptyText();
+            return false;
+        }
+        
+        if(phrase.length() > MAX_ADD_TEXT_LENGTH) {
+            myUI.warningExceededTextLimit();
+            return false;
+        }
+        
+        for (int charIndex = 0; charIndex < phrase.length(); charIndex++) {
+            char curChar = phrase.charAt(charIndex);
+            if(!isLetterOrDigit(curChar)) {
+                if(curChar != '_' && curChar != '-') {
+                    myUI.warningInvalidText(curChar);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Verifies that source and result paths are existing directories
+     * @return true if source and result paths are valid
+     */
+    public boolean hasValidDirectoryPaths() {
+        return((new File(sourcePath)).isDirectory() && (new File(resultPath)).isDirectory());
+    }
+    
+    /**
+     * @return files which could not be converted during the last execution
+     */
+    public ErrorReport getErrorReport() {
+        return errors;
+    }
+}
\ No newline at end of file
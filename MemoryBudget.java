@@ -0,0 +1,133 @@
+package nmsvrscreenshotfix;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control in front of decoding: every image reserves its estimated
+ * pixel memory before it is decoded and gives it back once its pixels are
+ * dropped. Decodes wait while the reservations would exceed the budget, so
+ * small screenshots decode in parallel while huge ones take turns. An image
+ * larger than the whole budget is admitted alone once nothing else is in
+ * flight. Requests are admitted in arrival order, so a large image is never
+ * starved by a stream of small ones.
+ */
+class MemoryBudget {
+    private final long budgetBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Queue<Object> waiting = new ArrayDeque<>();
+    private long reservedBytes;
+
+    // Statistics
+    private int waits;
+    private long peakBytes;
+
+    /**
+     * @param budgetBytes pixel memory the images in flight may reserve together
+     */
+    MemoryBudget(long budgetBytes) {
+        this.budgetBytes = Math.max(1, budgetBytes);
+    }
+
+    /**
+     * Waits until the bytes fit into the budget and reserves them. Waiting is
+     * not interruptible, reservations are only ever held by jobs which are
+     * making progress, the interrupt status is kept.
+     * @param bytes estimated pixel memory of an image
+     */
+    void acquire(long bytes) {
+        Object ticket = new Object();
+        lock.lock();
+        try {
+            waiting.add(ticket);
+            boolean waited = false;
+            while (waiting.peek() != ticket || !fits(bytes)) {
+                waited = true;
+                changed.awaitUninterruptibly();
+            }
+            waiting.remove();
+            reservedBytes += bytes;
+            peakBytes = Math.max(peakBytes, reservedBytes);
+            if (waited) {
+                waits++;
+            }
+            // the next in line may fit as well
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param bytes a reservation made with {@link #acquire}
+     */
+    void release(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return reservedBytes == 0 || reservedBytes + bytes <= budgetBytes;
+    }
+
+    /**
+     * @param bytes estimated pixel memory of an image
+     * @return true if the image only gets admitted when nothing else is in flight
+     */
+    boolean exceedsBudget(long bytes) {
+        return bytes > budgetBytes;
+    }
+
+    /**
+     * @return pixel memory currently reserved
+     */
+    long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of decodes waiting for memory
+     */
+    int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return one line describing how much the budget held decodes back
+     */
+    String statsReport() {
+        lock.lock();
+        try {
+            return String.format("memory budget %.1f MB, peak %.1f MB reserved, %d decodes waited%n",
+                budgetBytes / 1048576.0, peakBytes / 1048576.0, waits);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
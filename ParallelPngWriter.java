@@ -0,0 +1,412 @@
+package nmsvrscreenshotfix;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder which compresses one image on several cores, in the manner of
+ * pigz. The scanlines are split into blocks of rows which are filtered and
+ * deflated concurrently. Each block is primed with the last 32 KB of the
+ * block before it as its dictionary and ends on a sync flush, so the raw
+ * deflate streams simply concatenate into one zlib stream. Its Adler-32 is
+ * combined from the per-block checksums. The result is a standard PNG.
+ *
+ * Handles 8 bit gray, gray with alpha, RGB and RGBA images (non premultiplied)
+ * of any raster layout, see {@link #supports}.
+ */
+final class ParallelPngWriter {
+    static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+    private static final int MIN_BLOCK_BYTES = 256 * 1024;
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+
+    // PNG color types
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    /**
+     * Deflate workers shared by every encoder, created on first use.
+     */
+    private static class Workers {
+        static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable work) {
+                    Thread worker = new Thread(work, "png-deflate-" + count.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                }
+            });
+    }
+
+    private ParallelPngWriter() {
+    }
+
+    /**
+     * @param image any image
+     * @return true if the image has 8 bit gray or sRGB samples, with or without
+     *  straight alpha, and no palette
+     */
+    static boolean supports(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel instanceof IndexColorModel || colorModel.isAlphaPremultiplied()
+                || image.getRaster().getNumBands() != colorModel.getNumComponents()) {
+            return false;
+        }
+        for (int bits : colorModel.getComponentSize()) {
+            if (bits != 8) {
+                return false;
+            }
+        }
+        ColorSpace space = colorModel.getColorSpace();
+        int colorComponents = colorModel.getNumColorComponents();
+        return (colorComponents == 3 && space.isCS_sRGB())
+            || (colorComponents == 1 && space.getType() == ColorSpace.TYPE_GRAY);
+    }
+
+    /**
+     * @param colorModel color model of a supported image
+     * @return the PNG color type for its samples
+     */
+    static int colorType(ColorModel colorModel) {
+        return (colorModel.getNumColorComponents() == 3)
+            ? (colorModel.hasAlpha() ? RGBA : RGB)
+            : (colorModel.hasAlpha() ? GRAY_ALPHA : GRAY);
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param channels samples per pixel
+     * @return bytes {@link #encode} holds besides the image: the filtered rows,
+     *  and their compressed blocks, which are as large when stored
+     */
+    static long scratchBytes(int width, int height, int channels) {
+        return 2L * height * ((long) width * channels + 1);
+    }
+
+    /**
+     * Encodes the image as a PNG file.
+     * @param image an image for which {@link #supports} is true
+     * @param compressionLevel deflate level from 0 (store) to 9
+     * @return the file contents
+     * @throws IOException if interrupted or a block fails to compress
+     */
+    static byte[] encode(BufferedImage image, int compressionLevel) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorModel colorModel = image.getColorModel();
+        int channels = colorModel.getNumComponents();
+        int colorType = colorType(colorModel);
+
+        int rowBytes = width * channels;
+        int rowsPerBlock = Math.max(1, MIN_BLOCK_BYTES / (rowBytes + 1));
+        int blockCount = (height + rowsPerBlock - 1) / rowsPerBlock;
+        Raster raster = image.getRaster();
+
+        // filter every block, deflating needs the previous block's tail as dictionary
+        List<Callable<byte[]>> filterTasks = new ArrayList<>(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            int firstRow = block * rowsPerBlock;
+            int endRow = Math.min(height, firstRow + rowsPerBlock);
+            filterTasks.add(() -> filterRows(raster, firstRow, endRow, channels, compressionLevel != 0));
+        }
+        List<byte[]> filtered = runAll(filterTasks);
+
+        List<Callable<byte[]>> deflateTasks = new ArrayList<>(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            byte[] previous = (block == 0) ? null : filtered.get(block - 1);
+            byte[] data = filtered.get(block);
+            boolean last = block == blockCount - 1;
+            deflateTasks.add(() -> deflateBlock(data, previous, compressionLevel, last));
+        }
+        List<byte[]> compressed = runAll(deflateTasks);
+
+        long adler = 1;
+        Adler32 blockChecksum = new Adler32();
+        for (byte[] data : filtered) {
+            blockChecksum.reset();
+            blockChecksum.update(data, 0, data.length);
+            adler = combineAdler32(adler, blockChecksum.getValue(), data.length);
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(64 + totalLength(compressed) + 12 * blockCount);
+        png.write(SIGNATURE, 0, SIGNATURE.length);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) colorType;
+        writeChunk(png, "IHDR", header);
+        for (int block = 0; block < blockCount; block++) {
+            byte[] prefix = (block == 0) ? zlibHeader(compressionLevel) : new byte[0];
+            byte[] suffix = new byte[0];
+            if (block == blockCount - 1) {
+                suffix = new byte[4];
+                putInt(suffix, 0, (int) adler);
+            }
+            writeChunk(png, "IDAT", prefix, compressed.get(block), suffix);
+        }
+        writeChunk(png, "IEND");
+        return png.toByteArray();
+    }
+
+    /**
+     * Filters a range of rows, choosing for each row the filter with the
+     * smallest sum of absolute differences, like the stock writer does.
+     * @param raster pixels of the image
+     * @param firstRow first row of the block
+     * @param endRow row after the last row of the block
+     * @param channels samples per pixel
+     * @param adaptive false to store every row unfiltered, pointless work when not compressing
+     * @return filter type byte followed by the filtered samples, for every row
+     */
+    private static byte[] filterRows(Raster raster, int firstRow, int endRow, int channels, boolean adaptive) {
+        int width = raster.getWidth();
+        int rowBytes = width * channels;
+        int[] samples = new int[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        if (firstRow > 0 && adaptive) {
+            readRow(raster, firstRow - 1, samples, previous);
+        }
+        byte[][] candidates = new byte[5][rowBytes];
+        byte[] filtered = new byte[(endRow - firstRow) * (rowBytes + 1)];
+        int offset = 0;
+        for (int row = firstRow; row < endRow; row++) {
+            readRow(raster, row, samples, current);
+            int filter = adaptive ? chooseFilter(current, previous, channels, candidates) : 0;
+            filtered[offset] = (byte) filter;
+            System.arraycopy(filter == 0 ? current : candidates[filter], 0, filtered, offset + 1, rowBytes);
+            offset += rowBytes + 1;
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return filtered;
+    }
+
+    static void readRow(Raster raster, int row, int[] samples, byte[] out) {
+        raster.getPixels(raster.getMinX(), raster.getMinY() + row, raster.getWidth(), 1, samples);
+        for (int sample = 0; sample < out.length; sample++) {
+            out[sample] = (byte) samples[sample];
+        }
+    }
+
+    /**
+     * Fills candidates 1 to 4 (sub, up, average, paeth) and picks the best.
+     * The row above the first image row is all zeros.
+     * @return the filter type, 0 meaning the row is stored unfiltered
+     */
+    static int chooseFilter(byte[] row, byte[] above, int bpp, byte[][] candidates) {
+        byte[] sub = candidates[1];
+        byte[] up = candidates[2];
+        byte[] average = candidates[3];
+        byte[] paeth = candidates[4];
+        long noneSum = 0;
+        long subSum = 0;
+        long upSum = 0;
+        long averageSum = 0;
+        long paethSum = 0;
+        for (int index = 0; index < row.length; index++) {
+            int value = row[index] & 0xFF;
+            int left = (index >= bpp) ? row[index - bpp] & 0xFF : 0;
+            int upper = above[index] & 0xFF;
+            int upperLeft = (index >= bpp) ? above[index - bpp] & 0xFF : 0;
+
+            byte none = (byte) value;
+            byte subValue = (byte) (value - left);
+            byte upValue = (byte) (value - upper);
+            byte averageValue = (byte) (value - ((left + upper) >> 1));
+            byte paethValue = (byte) (value - paethPredictor(left, upper, upperLeft));
+            sub[index] = subValue;
+            up[index] = upValue;
+            average[index] = averageValue;
+            paeth[index] = paethValue;
+            noneSum += Math.abs(none);
+            subSum += Math.abs(subValue);
+            upSum += Math.abs(upValue);
+            averageSum += Math.abs(averageValue);
+            paethSum += Math.abs(paethValue);
+        }
+        long[] sums = { noneSum, subSum, upSum, averageSum, paethSum };
+        int best = 0;
+        long bestSum = noneSum;
+        for (int filter = 1; filter < sums.length; filter++) {
+            if (sums[filter] < bestSum) {
+                bestSum = sums[filter];
+                best = filter;
+            }
+        }
+        return best;
+    }
+
+    static int paethPredictor(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return (distanceUp <= distanceUpLeft) ? up : upLeft;
+    }
+
+    /**
+     * Compresses one block into a raw deflate stream.
+     * @param data filtered rows of the block
+     * @param previous filtered rows of the previous block, or null for the first block
+     * @param level deflate level
+     * @param last true to end the stream, otherwise the block ends on a byte aligned sync flush
+     * @return the compressed block
+     */
+    private static byte[] deflateBlock(byte[] data, byte[] previous, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null && level != 0) {
+                int length = Math.min(DICTIONARY_BYTES, previous.length);
+                deflater.setDictionary(previous, previous.length - length, length);
+            }
+            deflater.setInput(data);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * The Adler-32 of two concatenated byte sequences, as zlib's adler32_combine.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * @return the two byte zlib header for a deflate stream with a 32 KB window
+     */
+    private static byte[] zlibHeader(int level) {
+        int compressionMethod = 0x78;
+        int levelFlag = (level < 2) ? 0 : (level < 6) ? 1 : (level == 6) ? 2 : 3;
+        int flags = levelFlag << 6;
+        flags += 31 - ((compressionMethod << 8) + flags) % 31;
+        return new byte[] { (byte) compressionMethod, (byte) flags };
+    }
+
+    static void writeChunk(ByteArrayOutputStream out, String type, byte[]... parts) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] number = new byte[4];
+        putInt(number, 0, length);
+        out.write(number, 0, 4);
+        out.write(typeBytes, 0, 4);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes, 0, 4);
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+            crc.update(part, 0, part.length);
+        }
+        putInt(number, 0, (int) crc.getValue());
+        out.write(number, 0, 4);
+    }
+
+    static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int totalLength(List<byte[]> arrays) {
+        int total = 0;
+        for (byte[] array : arrays) {
+            total += array.length;
+        }
+        return total;
+    }
+
+    /**
+     * Runs the tasks on the deflate workers and waits for all of them.
+     * @return the results in task order
+     */
+    private static List<byte[]> runAll(List<Callable<byte[]>> tasks) throws IOException {
+        try {
+            List<byte[]> results = new ArrayList<>(tasks.size());
+            for (Future<byte[]> result : Workers.POOL.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            return results;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("PNG encoding failed", cause);
+        }
+    }
+}
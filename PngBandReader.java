@@ -0,0 +1,282 @@
+package nmsvrscreenshotfix;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG file a few rows at a time, for converting images too large to
+ * hold in memory twice. Unlike reading bands through ImageIO's source region,
+ * which inflates the image from the top for every band, each row is inflated
+ * and unfiltered exactly once. Only non-interlaced 8 bit gray, gray with
+ * alpha, RGB and RGBA files without a transparent color key are supported.
+ */
+final class PngBandReader implements Closeable {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+    final int width;
+    final int height;
+    /** samples per pixel */
+    final int channels;
+
+    private final DataInputStream file;
+    private final InputStream pixels;
+    private byte[] previous;
+    private byte[] current;
+    private int rowsRead;
+    /** bytes left in the current IDAT chunk */
+    private int idatRemaining;
+
+    private PngBandReader(DataInputStream file, int width, int height, int channels) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.pixels = new InflaterInputStream(new IdatStream(), new Inflater(), 64 * 1024);
+        this.previous = new byte[width * channels];
+        this.current = new byte[width * channels];
+    }
+
+    /**
+     * Reads the header chunks up to the first image data.
+     * @param pngFile a PNG file
+     * @return the reader positioned at the first row, or null if the file's
+     *  layout is not supported and should be decoded by ImageIO
+     * @throws IOException if the file cannot be read or is not a PNG
+     */
+    static PngBandReader open(File pngFile) throws IOException {
+        DataInputStream file = new DataInputStream(new BufferedInputStream(new FileInputStream(pngFile), 64 * 1024));
+        try {
+            if (file.readLong() != SIGNATURE) {
+                throw new IOException("Not a PNG file");
+            }
+            int width = 0;
+            int height = 0;
+            int channels = 0;
+            while (true) {
+                int length = file.readInt();
+                int type = file.readInt();
+                if (type == chunkType("IHDR")) {
+                    width = file.readInt();
+                    height = file.readInt();
+                    int bitDepth = file.readUnsignedByte();
+                    int colorType = file.readUnsignedByte();
+                    file.readUnsignedByte(); // compression method
+                    file.readUnsignedByte(); // filter method
+                    int interlace = file.readUnsignedByte();
+                    channels = channelsOf(colorType);
+                    if (bitDepth != 8 || channels == 0 || interlace != 0) {
+                        file.close();
+                        return null;
+                    }
+                    skipFully(file, length - 13 + 4);
+                } else if (type == chunkType("tRNS")) {
+                    // a color key turns into alpha in ImageIO, keep its pixels
+                    file.close();
+                    return null;
+                } else if (type == chunkType("IDAT")) {
+                    if (channels == 0) {
+                        throw new IOException("PNG image data before its header");
+                    }
+                    PngBandReader reader = new PngBandReader(file, width, height, channels);
+                    reader.idatRemaining = length;
+                    return reader;
+                } else if (type == chunkType("IEND")) {
+                    throw new IOException("PNG file without image data");
+                } else {
+                    skipFully(file, length + 4L);
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return samples per pixel of a supported PNG color type, 0 if not supported
+     */
+    private static int channelsOf(int colorType) {
+        switch (colorType) {
+            case 0:
+                return 1;
+            case 2:
+                return 3;
+            case 4:
+                return 2;
+            case 6:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param rows height of the band
+     * @return an image the rows are decoded into, samples in PNG order
+     */
+    BufferedImage createBand(int rows) {
+        boolean hasAlpha = channels == 2 || channels == 4;
+        ColorSpace space = ColorSpace.getInstance(channels < 3 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        ComponentColorModel colorModel = new ComponentColorModel(space, hasAlpha, false,
+            hasAlpha ? java.awt.Transparency.TRANSLUCENT : java.awt.Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        int[] offsets = new int[channels];
+        for (int band = 0; band < channels; band++) {
+            offsets[band] = band;
+        }
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, rows,
+            width * channels, channels, offsets, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Decodes the next rows into the top of a band from {@link #createBand}.
+     * @param band the band image
+     * @return the number of rows decoded, 0 once every row has been read
+     * @throws IOException if the image data is truncated or malformed
+     */
+    int readRows(BufferedImage band) throws IOException {
+        int rows = Math.min(band.getHeight(), height - rowsRead);
+        byte[] target = ((DataBufferByte) band.getRaster().getDataBuffer()).getData();
+        int rowBytes = width * channels;
+        for (int row = 0; row < rows; row++) {
+            int filter = pixels.read();
+            if (filter < 0) {
+                throw new EOFException("PNG image data ends after row " + rowsRead);
+            }
+            readFully(pixels, current, rowBytes);
+            unfilter(filter, current, previous, channels);
+            System.arraycopy(current, 0, target, row * rowBytes, rowBytes);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+            rowsRead++;
+        }
+        return rows;
+    }
+
+    /**
+     * Reverses the PNG filter of one row in place.
+     */
+    private static void unfilter(int filter, byte[] row, byte[] above, int bpp) throws IOException {
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int index = bpp; index < row.length; index++) {
+                    row[index] += row[index - bpp];
+                }
+                break;
+            case 2:
+                for (int index = 0; index < row.length; index++) {
+                    row[index] += above[index];
+                }
+                break;
+            case 3:
+                for (int index = 0; index < row.length; index++) {
+                    int left = (index >= bpp) ? row[index - bpp] & 0xFF : 0;
+                    row[index] += (byte) ((left + (above[index] & 0xFF)) >> 1);
+                }
+                break;
+            case 4:
+                for (int index = 0; index < row.length; index++) {
+                    int left = (index >= bpp) ? row[index - bpp] & 0xFF : 0;
+                    int upperLeft = (index >= bpp) ? above[index - bpp] & 0xFF : 0;
+                    row[index] += (byte) ParallelPngWriter.paethPredictor(left, above[index] & 0xFF, upperLeft);
+                }
+                break;
+            default:
+                throw new IOException("Unknown PNG filter type " + filter);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(previous, (byte) 0);
+        file.close();
+    }
+
+    private static int chunkType(String name) {
+        return (name.charAt(0) << 24) | (name.charAt(1) << 16) | (name.charAt(2) << 8) | name.charAt(3);
+    }
+
+    private static void readFully(InputStream in, byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(target, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException("PNG image data is truncated");
+            }
+            offset += count;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * The data of consecutive IDAT chunks as one stream, ending at the first other chunk.
+     */
+    private class IdatStream extends InputStream {
+        private boolean ended;
+
+        private boolean nextChunk() throws IOException {
+            while (idatRemaining == 0 && !ended) {
+                file.readInt(); // CRC of the finished chunk
+                int length = file.readInt();
+                if (file.readInt() == chunkType("IDAT")) {
+                    idatRemaining = length;
+                } else {
+                    ended = true;
+                }
+            }
+            return !ended;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0) ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = file.read(target, offset, Math.min(length, idatRemaining));
+            if (count < 0) {
+                throw new EOFException("PNG file is truncated");
+            }
+            idatRemaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNG encoder which is handed an image a band of rows at a time, for images
+ * converted in bands. Rows are filtered as they arrive, with the same
+ * adaptive filter choice as {@link ParallelPngWriter}, and fed to a single
+ * deflate stream, so only the compressed file grows in memory. Handles the
+ * images {@link ParallelPngWriter#supports} does.
+ */
+final class PngRowWriter implements Closeable {
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final int colorType;
+    private final int compressionLevel;
+    private final Deflater deflater;
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+    private final DeflaterOutputStream zlib;
+
+    private final int[] samples;
+    private byte[] previous;
+    private byte[] current;
+    private final byte[][] candidates;
+    private int rowsWritten;
+
+    /**
+     * @param width width of the image
+     * @param height number of rows which will be written
+     * @param colorModel color model of the bands, supported by {@link ParallelPngWriter}
+     * @param compressionLevel deflate level from 0 (store) to 9
+     */
+    PngRowWriter(int width, int height, ColorModel colorModel, int compressionLevel) {
+        this.width = width;
+        this.height = height;
+        this.channels = colorModel.getNumComponents();
+        this.colorType = ParallelPngWriter.colorType(colorModel);
+        this.compressionLevel = compressionLevel;
+        this.deflater = new Deflater(compressionLevel);
+        this.zlib = new DeflaterOutputStream(compressed, deflater, 64 * 1024);
+        int rowBytes = width * channels;
+        this.samples = new int[rowBytes];
+        this.previous = new byte[rowBytes];
+        this.current = new byte[rowBytes];
+        this.candidates = new byte[5][rowBytes];
+    }
+
+    /**
+     * Filters and compresses the next rows of the image.
+     * @param band raster holding the rows at its top
+     * @param rows number of rows to take from the band
+     * @throws IOException if more rows are written than the image has
+     */
+    void writeRows(Raster band, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IOException("PNG has " + height + " rows, got " + (rowsWritten + rows));
+        }
+        boolean adaptive = compressionLevel != 0;
+        for (int row = 0; row < rows; row++) {
+            ParallelPngWriter.readRow(band, row, samples, current);
+            int filter = adaptive ? ParallelPngWriter.chooseFilter(current, previous, channels, candidates) : 0;
+            zlib.write(filter);
+            zlib.write(filter == 0 ? current : candidates[filter]);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Ends the deflate stream once every row has been written.
+     * @return the file contents
+     * @throws IOException if rows are missing
+     */
+    byte[] finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IOException("PNG has " + height + " rows, only " + rowsWritten + " were written");
+        }
+        zlib.finish();
+        ByteArrayOutputStream png = new ByteArrayOutputStream(compressed.size() + 64);
+        png.write(ParallelPngWriter.SIGNATURE, 0, ParallelPngWriter.SIGNATURE.length);
+        byte[] header = new byte[13];
+        ParallelPngWriter.putInt(header, 0, width);
+        ParallelPngWriter.putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) colorType;
+        ParallelPngWriter.writeChunk(png, "IHDR", header);
+        ParallelPngWriter.writeChunk(png, "IDAT", compressed.toByteArray());
+        ParallelPngWriter.writeChunk(png, "IEND");
+        return png.toByteArray();
+    }
+
+    /**
+     * Frees the deflater, whether or not the image was finished.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,365 @@
+package nmsvrscreenshotfix;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the files a previous run already handled, stored in the
+ * result folder. A source file whose path, size and modification time match
+ * its entry is skipped without being opened, as long as the output produced
+ * for it still exists. The manifest is discarded when the rename settings
+ * change, since the same source would then produce a different output.
+ *
+ * File format: a settings line followed by one tab separated line per file:
+ * source path, size, modified millis, output path (empty if no output).
+ * Outputs still on disk whose source has no entry, e.g. written under other
+ * settings, are kept with a size of -1 so they are never taken for sources.
+ *
+ * The manifest itself is only rewritten at the end of a batch. In between,
+ * every handled file is appended to a journal next to it as soon as it is
+ * recorded, so a batch which is killed or whose JVM dies is resumed where it
+ * stopped: the journal is replayed on top of the manifest by the next load.
+ * The journal also records originals about to be renamed, so a renamed
+ * original whose conversion never finished is converted under its original
+ * name instead of being taken for a new file. Each journal line is written
+ * with a single append, a line torn by a crash is ignored.
+ *
+ * Journal format: the settings line, then lines of the form
+ * "done", source, size, modified, output, or "renamed", original, renamed path.
+ */
+class ProcessedManifest {
+    static final String FILE_NAME = ".nmsvrfix-manifest.tsv";
+    static final String JOURNAL_NAME = ".nmsvrfix-journal.tsv";
+
+    private static final String HEADER_PREFIX = "#settings\t";
+    private static final String DONE = "done";
+    private static final String RENAMED = "renamed";
+    /** size of a line which only keeps an output */
+    private static final long OUTPUT_ONLY = -1;
+
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String output;
+
+        Entry(long size, long modified, String output) {
+            this.size = size;
+            this.modified = modified;
+            this.output = output;
+        }
+    }
+
+    private final File manifestFile;
+    private final File journalFile;
+    private final String settingsKey;
+    private final boolean trustExisting;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** renamed originals whose conversion has not finished, to their original path */
+    private final Map<String, String> pendingRenames = new ConcurrentHashMap<>();
+    /** normalized paths of converted files written next to no source of that name, under any settings, to their source */
+    private final Map<String, String> outputs = new ConcurrentHashMap<>();
+    private FileChannel journal;
+
+    private ProcessedManifest(File resultFolder, String settingsKey, boolean trustExisting) {
+        this.manifestFile = new File(resultFolder, FILE_NAME);
+        this.journalFile = new File(resultFolder, JOURNAL_NAME);
+        this.settingsKey = settingsKey;
+        this.trustExisting = trustExisting;
+    }
+
+    /**
+     * Loads the manifest of a result folder and replays the journal of an
+     * interrupted batch. A missing, unreadable or outdated manifest gives an
+     * empty one, so every file is processed again. Pending renames are kept
+     * in any case, they describe files rather than settings. A journal
+     * written under other settings is started over, so its records are not
+     * resumed by a later run under those settings.
+     * @param resultFolder folder holding the manifest
+     * @param settingsKey description of the settings that determine each output
+     * @param trustExisting false to process every file again, forcing a full rescan.
+     *  The entries are still loaded, so outputs are known and saving keeps them.
+     * @return the loaded manifest
+     */
+    static ProcessedManifest load(File resultFolder, String settingsKey, boolean trustExisting) {
+        ProcessedManifest manifest = new ProcessedManifest(resultFolder, settingsKey, trustExisting);
+        if (manifest.manifestFile.isFile()) {
+            manifest.readManifest();
+        }
+        if (!manifest.replayJournal()) {
+            try {
+                manifest.resetJournal();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Could not start a new journal: " + ex.getMessage());
+            }
+        }
+        return manifest;
+    }
+
+    private void readManifest() {
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            boolean sameSettings = line != null && line.equals(HEADER_PREFIX + settingsKey);
+            if (!sameSettings && trustExisting) {
+                System.out.println(">> Settings changed since the last run, ignoring manifest");
+            }
+            while (line != null && (line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 4) {
+                    addOutput(fields[0], fields[3]);
+                    long size = Long.parseLong(fields[1]);
+                    if (sameSettings && size != OUTPUT_ONLY) {
+                        entries.put(fields[0], new Entry(size,
+                            Long.parseLong(fields[2]), fields[3].isEmpty() ? null : fields[3]));
+                    }
+                }
+            }
+        }
+        catch (IOException | NumberFormatException ex) {
+            System.err.println(">> Could not read manifest, processing all files: " + ex.getMessage());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Applies the journal left behind by a batch which did not finish.
+     * Files are only taken as handled if the journal was written under the
+     * same settings.
+     * @return false if the journal was written under other settings
+     */
+    private boolean replayJournal() {
+        if (!journalFile.isFile()) {
+            return true;
+        }
+        int resumed = 0;
+        boolean sameSettings = true;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            sameSettings = line != null && line.equals(HEADER_PREFIX + settingsKey);
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 5 && fields[0].equals(DONE)) {
+                    pendingRenames.remove(fields[1]);
+                    addOutput(fields[1], fields[4]);
+                    if (sameSettings) {
+                        try {
+                            entries.put(fields[1], new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                                fields[4].isEmpty() ? null : fields[4]));
+                            resumed++;
+                        }
+                        catch (NumberFormatException ex) {
+                            // torn by a crash
+                        }
+                    }
+                } else if (fields.length == 3 && fields[0].equals(RENAMED)) {
+                    pendingRenames.put(fields[2], fields[1]);
+                }
+            }
+        }
+        catch (IOException ex) {
+            System.err.println(">> Could not read journal of the last run: " + ex.getMessage());
+        }
+        if (resumed > 0 && trustExisting) {
+            System.out.println(">> Resuming an interrupted run, " + resumed + " files were already handled");
+        }
+        return sameSettings;
+    }
+
+    /**
+     * Checks the file against its entry using only file system metadata.
+     * @param source file from the source folder
+     * @return true if the file was handled before and has not changed since,
+     *  always false for a full rescan
+     */
+    boolean isUnchanged(File source) {
+        if (!trustExisting) {
+            return false;
+        }
+        Entry entry = entries.get(source.getAbsolutePath());
+        if (entry == null || entry.size != source.length() || entry.modified != source.lastModified()) {
+            return false;
+        }
+        return entry.output == null || new File(entry.output).exists();
+    }
+
+    /**
+     * Records a handled file with its current size and modification time.
+     * @param source the source file, under its current name
+     * @param output the converted file, or null if the file needed no conversion
+     */
+    void record(File source, File output) {
+        String sourcePath = source.getAbsolutePath();
+        String outputPath = (output == null) ? "" : output.getAbsolutePath();
+        if (hasSeparator(sourcePath) || hasSeparator(outputPath)) {
+            return;
+        }
+        Entry entry = new Entry(source.length(), source.lastModified(), output == null ? null : outputPath);
+        entries.put(sourcePath, entry);
+        pendingRenames.remove(sourcePath);
+        addOutput(sourcePath, outputPath);
+        appendToJournal(DONE + "\t" + sourcePath + "\t" + entry.size + "\t" + entry.modified + "\t" + outputPath);
+    }
+
+    /**
+     * Remembers a converted file unless it replaced its source, which stays a source.
+     * @param sourcePath path of the source
+     * @param outputPath path of its converted file, empty if none
+     */
+    private void addOutput(String sourcePath, String outputPath) {
+        if (!outputPath.isEmpty() && !outputPath.equals(sourcePath)) {
+            outputs.put(Paths.get(outputPath).normalize().toString(), sourcePath);
+        }
+    }
+
+    /**
+     * Tells converted files in the source folder from sources, also those
+     * converted under other settings.
+     * @param path absolute, normalized path of a file
+     * @return true if a run recorded in the manifest or journal wrote it for another source
+     */
+    boolean isOutput(String path) {
+        return outputs.containsKey(path);
+    }
+
+    /**
+     * Journals that an original is about to be renamed, before renaming it.
+     * @param original the source file under its original name
+     * @param renamed the name it is renamed to
+     */
+    void recordRename(File original, File renamed) {
+        String originalPath = original.getAbsolutePath();
+        String renamedPath = renamed.getAbsolutePath();
+        if (hasSeparator(originalPath) || hasSeparator(renamedPath)) {
+            return;
+        }
+        pendingRenames.put(renamedPath, originalPath);
+        appendToJournal(RENAMED + "\t" + originalPath + "\t" + renamedPath);
+    }
+
+    /**
+     * @param source a file from the source folder
+     * @return the original of a source file renamed by an interrupted run
+     *  before it was converted, or null if the file was not renamed
+     */
+    File getRenamedOriginal(File source) {
+        String original = pendingRenames.get(source.getAbsolutePath());
+        return (original == null) ? null : new File(original);
+    }
+
+    /**
+     * Appends one line with a single write, so it reaches the file system
+     * even if the JVM dies right after. Failing to journal only costs resuming.
+     */
+    private synchronized void appendToJournal(String line) {
+        try {
+            if (journal == null) {
+                journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                if (journal.size() == 0) {
+                    write(HEADER_PREFIX + settingsKey);
+                } else if (!endsWithNewline()) {
+                    // a line torn by a crash must not swallow the next one
+                    write("");
+                }
+            }
+            write(line);
+        }
+        catch (IOException ex) {
+            System.err.println(">> Could not write journal: " + ex.getMessage());
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    private void write(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            journal.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the manifest to a temporary file which then replaces the old one,
+     * so an interrupted save never leaves a partial manifest behind. The
+     * journal then starts over, holding only the renames still pending.
+     * @throws IOException if the manifest cannot be written
+     */
+    void save() throws IOException {
+        try {
+            saveManifest();
+        }
+        catch (IOException ex) {
+            // the journal keeps the batch's records for the next run
+            closeJournal();
+            throw ex;
+        }
+        resetJournal();
+    }
+
+    private void saveManifest() throws IOException {
+        Path target = manifestFile.toPath();
+        Path temp = target.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER_PREFIX + settingsKey);
+            writer.newLine();
+            for (Map.Entry<String, Entry> record : entries.entrySet()) {
+                Entry entry = record.getValue();
+                writer.write(record.getKey() + "\t" + entry.size + "\t" + entry.modified + "\t"
+                    + (entry.output == null ? "" : entry.output));
+                writer.newLine();
+            }
+            for (Map.Entry<String, String> output : outputs.entrySet()) {
+                Entry entry = entries.get(output.getValue());
+                boolean kept = entry != null && entry.output != null
+                    && Paths.get(entry.output).normalize().toString().equals(output.getKey());
+                if (!kept && new File(output.getKey()).exists()) {
+                    writer.write(output.getValue() + "\t" + OUTPUT_ONLY + "\t" + OUTPUT_ONLY + "\t" + output.getKey());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private synchronized void resetJournal() throws IOException {
+        closeJournal();
+        Files.deleteIfExists(journalFile.toPath());
+        for (Map.Entry<String, String> rename : pendingRenames.entrySet()) {
+            if (!new File(rename.getKey()).exists()) {
+                // the rename failed or the file is gone
+                pendingRenames.remove(rename.getKey());
+                continue;
+            }
+            appendToJournal(RENAMED + "\t" + rename.getValue() + "\t" + rename.getKey());
+        }
+    }
+
+    private static boolean hasSeparator(String path) {
+        return path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0;
+    }
+}
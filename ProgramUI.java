@@ -8,11 +8,14 @@ import javax.swing.JOptionPane;
  * Handles visual aspects of the main window as well as all program popups.
  * @author Noah Ortega
  */
-public class ProgramUI extends javax.swing.JFrame {
+public class ProgramUI extends javax.swing.JFrame implements ExecutionView {
 
     LogicController controller = LogicController.getInstance();
     
-    String[] fileErrorOptions = {"Okay","Okay, Skip Remaining Errors","Cancel Execution"};
+    String[] reportOptions = {"Okay","Show Report"};
+    
+    // timings of the last execution, offered by the complete and cancel popups
+    private String lastRunReport;
     
     public ProgramUI() {
         initComponents();
@@ -198,7 +201,7 @@ public class ProgramUI extends javax.swing.JFrame {
             controller.sourcePath = sourceFolderField.getText();
             controller.resultPath = resultFolderField.getText();
             if (controller.hasValidDirectoryPaths()) {
-                controller.execute();
+                controller.executeInBackground();
             }
             else {
                 errorInvalidPath();
@@ -267,9 +270,13 @@ public class ProgramUI extends javax.swing.JFrame {
     /**
      * Allows the logic controller to change the value of the progress bar
      * @param value percentage the progress bar should be filled. (max 100)
+     *  A negative value shows activity while the total is still unknown.
      */
     public void updateProgressBar(int value) {
-        progressBar.setValue(value);
+        progressBar.setIndeterminate(value < 0);
+        if (value >= 0) {
+            progressBar.setValue(value);
+        }
     }
     
     /**
@@ -279,8 +286,7 @@ public class ProgramUI extends javax.swing.JFrame {
      */
     public void completePopup(int converted) {
         if(converted != 0) {
-            JOptionPane.showMessageDialog(this,
-            ("" + converted + " images were converted successfully."),
+            popupWithReport(("" + converted + " images were converted successfully."),
             "Complete", JOptionPane.INFORMATION_MESSAGE);
             progressBar.setValue(0);
         } else {
@@ -297,11 +303,55 @@ public class ProgramUI extends javax.swing.JFrame {
      * @param converted number of files converted before cancellation
      */
     public void cancelPopup(int converted) {
-        JOptionPane.showMessageDialog(this,
-            "Converted " + converted + " files before canceling.",
+        popupWithReport("Converted " + converted + " files before canceling.",
             "Canceled", JOptionPane.ERROR_MESSAGE);
     }
     
+    /**
+     * Keeps the timings of the finished execution for the following popup.
+     * @param report per stage timings of the run as a text table
+     */
+    public void runReport(String report) {
+        lastRunReport = report;
+    }
+    
+    /**
+     * Message popup with an extra button which shows the run report, if there is one.
+     * @param message text of the popup
+     * @param title title of the popup
+     * @param messageType JOptionPane message type
+     */
+    private void popupWithReport(String message, String title, int messageType) {
+        String report = lastRunReport;
+        lastRunReport = null;
+        if (report == null) {
+            JOptionPane.showMessageDialog(this, message, title, messageType);
+            return;
+        }
+        int choice = JOptionPane.showOptionDialog(this, message, title, JOptionPane.DEFAULT_OPTION,
+            messageType, null, reportOptions, reportOptions[0]);
+        if (choice == 1) {
+            textPopup(report, "Run Report (also saved as " + RunReport.JSON_FILE_NAME + " in the result folder)",
+                JOptionPane.PLAIN_MESSAGE);
+        }
+    }
+    
+    /**
+     * Popup showing a longer text in a scrollable monospaced area.
+     * @param text text to be shown
+     * @param title title of the popup
+     * @param messageType JOptionPane message type
+     */
+    private void textPopup(String text, String title, int messageType) {
+        javax.swing.JTextArea textArea = new javax.swing.JTextArea(text);
+        textArea.setEditable(false);
+        textArea.setFont(new java.awt.Font(java.awt.Font.MONOSPACED, java.awt.Font.PLAIN, 12));
+        javax.swing.JScrollPane scrollPane = new javax.swing.JScrollPane(textArea);
+        java.awt.Dimension size = scrollPane.getPreferredSize();
+        scrollPane.setPreferredSize(new java.awt.Dimension(Math.min(size.width + 20, 800), Math.min(size.height + 5, 400)));
+        JOptionPane.showMessageDialog(this, scrollPane, title, messageType);
+    }
+    
     /**
      * If the user chooses a settings combination which will result in replacing
      * their original screenshots this warning will give them one last chance to
@@ -330,44 +380,14 @@ public class ProgramUI extends javax.swing.JFrame {
     }
     
     /**
-     * Popup triggers during execution when an image cannot be read due to corruption.
-     * Gives user the option to skip remaining errors or cancel the operation.
-     * @param fileName the name of the corrupt image file
+     * Popup triggered once at the end of execution listing every file which
+     * could not be converted and why.
+     * @param errors the files which failed
      */
-    public void errorCorruptImage(String fileName) {
-        int choice = JOptionPane.showOptionDialog(this,
-            "The image file '" + fileName + "' cannot be read and may be corrupt.",
-            "Corrupt File Error: Cancel Execution?",JOptionPane.DEFAULT_OPTION,JOptionPane.ERROR_MESSAGE,
-            null,fileErrorOptions,fileErrorOptions[0]);
-        controller.userErrorResponse(choice);
+    public void errorReport(ErrorReport errors) {
+        textPopup(errors.toText(), "Some Files Were Not Converted", JOptionPane.ERROR_MESSAGE);
     }
     
-    /**
-     * Popup triggers if an image cannot be read from the source folder.
-     * Gives user the option to skip remaining errors or cancel the operation.
-     */
-    public void errorReading(String fileName) {
-        int choice = JOptionPane.showOptionDialog(this,
-            "There was a problem reading the file, '"+fileName+"' from the source folder.",
-            "Read Error: Cancel Execution?",JOptionPane.DEFAULT_OPTION,JOptionPane.ERROR_MESSAGE,
-            null,fileErrorOptions,fileErrorOptions[0]);
-        controller.userErrorResponse(choice);
-    }
-    
-    /**
-     * Popup triggers if an image cannot be written to the destination folder
-     * Gives user the option to skip remaining errors or cancel the operation.
-     */
-    public void errorWriting(String fileName) {
-        int choice = JOptionPane.showOptionDialog(this,
-            "There was a problem writing the file '"+fileName+"' to the destination folder.",
-            "Write Error: Cancel Execution?",JOptionPane.DEFAULT_OPTION,JOptionPane.ERROR_MESSAGE,
-            null,fileErrorOptions,fileErrorOptions[0]);
-        controller.userErrorResponse(choice);
-    }
-    
-    
-    
     //////////////////////////////////////////////////////////////////////
     // Settings Menu: text addition issue warning popups
     /////////////////////////////////////////////////////////////////////
@@ -390,6 +410,12 @@ public class ProgramUI extends javax.swing.JFrame {
             "Invalid character in the text", JOptionPane.WARNING_MESSAGE);
     }
     
+    public void warningInvalidTransform(String problem) {
+        JOptionPane.showMessageDialog(this,
+            "Transforms are separated by commas: squish, crop-eye:left, crop-eye:right,\nmax:PIXELS, rotate:90, rotate:180 or rotate:270.\nProblem: "+problem+".",
+            "Invalid transforms", JOptionPane.WARNING_MESSAGE);
+    }
+    
     
     
 
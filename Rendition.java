@@ -0,0 +1,214 @@
+package nmsvrscreenshotfix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * One of the files every converted image is written as, e.g. the full size
+ * image, a web copy and a thumbnail. A rendition can limit the size of the
+ * transformed image, change its format and JPEG quality, and adds a suffix
+ * to the converted file's name. All renditions of an image are made from a
+ * single decode, smaller ones from the larger ones.
+ *
+ * A rendition is written as "full", or as its settings separated by commas,
+ * e.g. "suffix:_web,max:1920,format:jpg,quality:85". A list of renditions is
+ * separated by semicolons.
+ */
+final class Rendition {
+    /** the converted image as is, the only rendition unless others are configured */
+    static final Rendition FULL = new Rendition("", 0, null, 0);
+    static final List<Rendition> DEFAULT_LIST = Collections.singletonList(FULL);
+
+    private static final int MAX_SUFFIX_LENGTH = 50;
+
+    /** text added to the converted file's name, before the extension */
+    final String suffix;
+    /** longest side in pixels, 0 for the size of the transformed image */
+    final int maxSide;
+    /** format to write, null for the format of the source file */
+    final String formatName;
+    /** JPEG quality from 1 to 100, 0 for the batch's encoder settings */
+    final int jpegQuality;
+
+    Rendition(String suffix, int maxSide, String formatName, int jpegQuality) {
+        this.suffix = suffix;
+        this.maxSide = maxSide;
+        this.formatName = formatName;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * @param spec "full", or settings separated by commas: suffix:TEXT,
+     *  max:PIXELS, format:png|jpg and quality:1-100
+     * @return the rendition
+     * @throws IllegalArgumentException describing the first invalid setting
+     */
+    static Rendition parse(String spec) {
+        String suffix = "";
+        int maxSide = 0;
+        String formatName = null;
+        int jpegQuality = 0;
+        for (String part : spec.split(",")) {
+            String setting = part.trim();
+            if (setting.isEmpty() || setting.equalsIgnoreCase("full")) {
+                continue;
+            }
+            int colon = setting.indexOf(':');
+            String name = (colon < 0) ? setting : setting.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String argument = (colon < 0) ? "" : setting.substring(colon + 1).trim();
+            switch (name) {
+                case "suffix":
+                    checkSuffix(argument);
+                    suffix = argument;
+                    break;
+                case "max":
+                    maxSide = parseNumber(argument, "max", 1, Integer.MAX_VALUE);
+                    break;
+                case "format":
+                    formatName = argument.toLowerCase(Locale.ROOT);
+                    if (!formatName.equals("png") && !formatName.equals("jpg") && !formatName.equals("jpeg")) {
+                        throw new IllegalArgumentException("format must be png or jpg");
+                    }
+                    break;
+                case "quality":
+                    jpegQuality = parseNumber(argument, "quality", 1, 100);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown rendition setting '" + setting + "'");
+            }
+        }
+        return new Rendition(suffix, maxSide, formatName, jpegQuality);
+    }
+
+    /**
+     * @param spec renditions separated by semicolons, see {@link #parse}
+     * @return the renditions in the given order
+     * @throws IllegalArgumentException if one is invalid or two share a suffix
+     */
+    static List<Rendition> parseList(String spec) {
+        List<Rendition> renditions = new ArrayList<>();
+        Set<String> suffixes = new HashSet<>();
+        for (String part : spec.split(";")) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            Rendition rendition = parse(part);
+            if (!suffixes.add(rendition.suffix.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException(rendition.suffix.isEmpty()
+                    ? "only one rendition may be without a suffix"
+                    : "two renditions have the suffix " + rendition.suffix);
+            }
+            renditions.add(rendition);
+        }
+        if (renditions.isEmpty()) {
+            throw new IllegalArgumentException("no renditions given");
+        }
+        return Collections.unmodifiableList(renditions);
+    }
+
+    private static void checkSuffix(String suffix) {
+        if (suffix.isEmpty() || suffix.length() > MAX_SUFFIX_LENGTH) {
+            throw new IllegalArgumentException("suffix must be 1 to " + MAX_SUFFIX_LENGTH + " characters");
+        }
+        for (int charIndex = 0; charIndex < suffix.length(); charIndex++) {
+            char curChar = suffix.charAt(charIndex);
+            if (!Character.isLetterOrDigit(curChar) && curChar != '_' && curChar != '-') {
+                throw new IllegalArgumentException("suffix may only hold letters, digits, _ and -");
+            }
+        }
+    }
+
+    private static int parseNumber(String argument, String name, int min, int max) {
+        int value;
+        try {
+            value = Integer.parseInt(argument);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(name + " needs a number");
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(name + " must be " + min
+                + ((max == Integer.MAX_VALUE) ? " or more" : " to " + max));
+        }
+        return value;
+    }
+
+    /**
+     * @param transformed mapping of the batch's transforms for an image
+     * @return the mapping of this rendition of the image
+     */
+    TransformChain.Mapping mapFor(TransformChain.Mapping transformed) {
+        return (maxSide > 0) ? transformed.fit(maxSide) : transformed;
+    }
+
+    /**
+     * @param sourceFormat format of the source file, given by its extension
+     * @return format this rendition is written in
+     */
+    String formatFor(String sourceFormat) {
+        return (formatName == null || formatName.equalsIgnoreCase(sourceFormat)) ? sourceFormat : formatName;
+    }
+
+    /**
+     * @param batchSettings the batch's encoder settings
+     * @return the encoder settings of this rendition
+     */
+    EncoderSettings settingsFor(EncoderSettings batchSettings) {
+        if (jpegQuality == 0) {
+            return batchSettings;
+        }
+        return new EncoderSettings(batchSettings.pngCompressionLevel, jpegQuality / 100f,
+            batchSettings.jpegProgressive, batchSettings.parallelPng);
+    }
+
+    /**
+     * @return true if this rendition writes the converted image unchanged
+     */
+    boolean isFull() {
+        return suffix.isEmpty() && maxSide == 0 && formatName == null && jpegQuality == 0;
+    }
+
+    /**
+     * @return the rendition in the form {@link #parse} reads, also used in settings keys
+     */
+    String key() {
+        if (isFull()) {
+            return "full";
+        }
+        List<String> settings = new ArrayList<>();
+        if (!suffix.isEmpty()) {
+            settings.add("suffix:" + suffix);
+        }
+        if (maxSide > 0) {
+            settings.add("max:" + maxSide);
+        }
+        if (formatName != null) {
+            settings.add("format:" + formatName);
+        }
+        if (jpegQuality > 0) {
+            settings.add("quality:" + jpegQuality);
+        }
+        return String.join(",", settings);
+    }
+
+    /**
+     * @param renditions a list of renditions
+     * @return the list in the form {@link #parseList} reads
+     */
+    static String key(List<Rendition> renditions) {
+        List<String> keys = new ArrayList<>();
+        for (Rendition rendition : renditions) {
+            keys.add(rendition.key());
+        }
+        return String.join(";", keys);
+    }
+
+    @Override
+    public String toString() {
+        return key();
+    }
+}
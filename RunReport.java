@@ -0,0 +1,346 @@
+package nmsvrscreenshotfix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of one run, per pipeline stage: how many files went through it,
+ * the time spent, latency percentiles and the bytes read and written. At the
+ * end of a run the report is shown to the user, written as JSON next to the
+ * results and appended as CSV rows, so runs can be compared across versions
+ * and machines. Recording is thread safe and does not allocate.
+ */
+final class RunReport {
+    static final String JSON_FILE_NAME = "nmsvrfix-report.json";
+    static final String CSV_FILE_NAME = "nmsvrfix-report.csv";
+    private static final String CSV_HEADER = "timestamp,host,cores,java,workers,stage,count,total_ms,"
+        + "p50_ms,p95_ms,p99_ms,bytes_in,bytes_out,images_per_s_per_thread,run_images_per_s";
+
+    enum Stage {
+        LISTING("listing"),
+        FILTER("filter"),
+        PROBE("probe"),
+        /** hashing files for the dedup cache */
+        HASH("hash"),
+        DECODE("decode"),
+        SCALE("scale"),
+        ENCODE("encode"),
+        /** decode, scale and encode of an image converted in bands */
+        BANDED("banded"),
+        WRITE("rename/write");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+    private final int workers;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long elapsedNanos = -1;
+    private int filesFinished;
+    private int converted;
+
+    /**
+     * @param workers worker threads per stage, recorded with the results
+     */
+    RunReport(int workers) {
+        this.workers = workers;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageMetrics());
+        }
+    }
+
+    /**
+     * Records one pass of a file through a stage.
+     * @param stage the stage
+     * @param nanos time the file spent in the stage
+     * @param bytesIn bytes read or consumed, 0 if not applicable
+     * @param bytesOut bytes written or produced, 0 if not applicable
+     */
+    void record(Stage stage, long nanos, long bytesIn, long bytesOut) {
+        StageMetrics metrics = stages.get(stage);
+        metrics.count.increment();
+        metrics.nanos.add(nanos);
+        metrics.bytesIn.add(bytesIn);
+        metrics.bytesOut.add(bytesOut);
+        metrics.latency.record(nanos);
+    }
+
+    /**
+     * Wraps a file listing so the time taken to produce each file, in hasNext
+     * and next, is recorded as the listing stage. A Closeable iterator stays Closeable.
+     * @param files the file listing
+     * @return the same files
+     */
+    Iterable<File> timeListing(Iterable<File> files) {
+        return () -> new TimedIterator(files.iterator());
+    }
+
+    /**
+     * Stops the clock for the run.
+     * @param filesFinished files which left the pipeline
+     * @param converted files which were converted
+     */
+    void finish(int filesFinished, int converted) {
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.filesFinished = filesFinished;
+        this.converted = converted;
+    }
+
+    /**
+     * @return converted images per second of wall clock time
+     */
+    double imagesPerSecond() {
+        long nanos = (elapsedNanos < 0) ? System.nanoTime() - startNanos : elapsedNanos;
+        return (nanos == 0) ? 0 : converted / (nanos / 1e9);
+    }
+
+    /**
+     * @return the report as a table for people
+     */
+    String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%d files, %d converted in %.2f s (%.1f images/s) with %d workers per stage%n",
+            filesFinished, converted, elapsedNanos / 1e9, imagesPerSecond(), workers));
+        text.append(String.format("%-13s %7s %10s %9s %9s %9s %10s %10s %9s%n",
+            "stage", "count", "total ms", "p50 ms", "p95 ms", "p99 ms", "MB in", "MB out", "img/s/th"));
+        for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            text.append(String.format("%-13s %7d %10.1f %9.2f %9.2f %9.2f %10.1f %10.1f %9.1f%n",
+                entry.getKey().label, metrics.count.sum(), metrics.nanos.sum() / 1e6,
+                metrics.latency.percentile(0.50) / 1e6, metrics.latency.percentile(0.95) / 1e6,
+                metrics.latency.percentile(0.99) / 1e6,
+                metrics.bytesIn.sum() / 1048576.0, metrics.bytesOut.sum() / 1048576.0, metrics.perSecond()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the report as a JSON object
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": \"").append(timestamp()).append("\"")
+            .append(",\n  \"host\": \"").append(CommandLineBatch.jsonEscape(hostName())).append("\"")
+            .append(",\n  \"cores\": ").append(Runtime.getRuntime().availableProcessors())
+            .append(",\n  \"java\": \"").append(CommandLineBatch.jsonEscape(System.getProperty("java.version"))).append("\"")
+            .append(",\n  \"workers\": ").append(workers)
+            .append(",\n  \"files\": ").append(filesFinished)
+            .append(",\n  \"converted\": ").append(converted)
+            .append(",\n  \"elapsedMillis\": ").append(elapsedNanos / 1_000_000)
+            .append(",\n  \"imagesPerSecond\": ").append(number(imagesPerSecond()))
+            .append(",\n  \"stages\": [");
+        String separator = "\n";
+        for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            json.append(separator).append("    {\"stage\": \"").append(entry.getKey().label).append("\"")
+                .append(", \"count\": ").append(metrics.count.sum())
+                .append(", \"totalMillis\": ").append(number(metrics.nanos.sum() / 1e6))
+                .append(", \"p50Millis\": ").append(number(metrics.latency.percentile(0.50) / 1e6))
+                .append(", \"p95Millis\": ").append(number(metrics.latency.percentile(0.95) / 1e6))
+                .append(", \"p99Millis\": ").append(number(metrics.latency.percentile(0.99) / 1e6))
+                .append(", \"bytesIn\": ").append(metrics.bytesIn.sum())
+                .append(", \"bytesOut\": ").append(metrics.bytesOut.sum())
+                .append(", \"imagesPerSecondPerThread\": ").append(number(metrics.perSecond()))
+                .append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes the JSON report and appends one CSV row per stage, with a header
+     * if the CSV file is new.
+     * @param resultFolder folder of the converted screenshots
+     * @throws IOException if a report file cannot be written
+     */
+    void writeFiles(File resultFolder) throws IOException {
+        Files.write(new File(resultFolder, JSON_FILE_NAME).toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+
+        File csvFile = new File(resultFolder, CSV_FILE_NAME);
+        StringBuilder csv = new StringBuilder();
+        if (!csvFile.exists()) {
+            csv.append(CSV_HEADER).append('\n');
+        }
+        String runColumns = timestamp() + "," + csvField(hostName()) + "," + Runtime.getRuntime().availableProcessors()
+            + "," + csvField(System.getProperty("java.version")) + "," + workers;
+        for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            csv.append(runColumns)
+                .append(',').append(csvField(entry.getKey().label))
+                .append(',').append(metrics.count.sum())
+                .append(',').append(number(metrics.nanos.sum() / 1e6))
+                .append(',').append(number(metrics.latency.percentile(0.50) / 1e6))
+                .append(',').append(number(metrics.latency.percentile(0.95) / 1e6))
+                .append(',').append(number(metrics.latency.percentile(0.99) / 1e6))
+                .append(',').append(metrics.bytesIn.sum())
+                .append(',').append(metrics.bytesOut.sum())
+                .append(',').append(number(metrics.perSecond()))
+                .append(',').append(number(imagesPerSecond()))
+                .append('\n');
+        }
+        Files.write(csvFile.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private String timestamp() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(startMillis));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (IOException ex) {
+            return "unknown";
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Counters of a single stage.
+     */
+    private static class StageMetrics {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * @return files per second of time spent in the stage, i.e. for one thread
+         */
+        double perSecond() {
+            long total = nanos.sum();
+            return (total == 0) ? 0 : count.sum() / (total / 1e9);
+        }
+    }
+
+    /**
+     * Log-linear histogram of durations: 16 linear buckets per power of two,
+     * so every percentile is within about 6% of the true value regardless of
+     * how many files a run has.
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private final AtomicLongArray buckets = new AtomicLongArray(SUB_COUNT * (64 - SUB_BITS + 1));
+        private final LongAdder total = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(indexOf(Math.max(0, nanos)));
+            total.increment();
+        }
+
+        /**
+         * @param fraction the percentile as a fraction, e.g. 0.95
+         * @return the midpoint of the bucket holding the percentile, 0 if empty
+         */
+        double percentile(double fraction) {
+            long count = total.sum();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int index = 0; index < buckets.length(); index++) {
+                seen += buckets.get(index);
+                if (seen >= rank) {
+                    return (lowerBound(index) + lowerBound(index + 1)) / 2.0;
+                }
+            }
+            return lowerBound(buckets.length() - 1);
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+        }
+
+        private static double lowerBound(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int exponent = (index - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+            int sub = (index - SUB_COUNT) % SUB_COUNT;
+            return (double) (SUB_COUNT + sub) * Math.pow(2, exponent - SUB_BITS);
+        }
+    }
+
+    /**
+     * Times each step of the file listing.
+     */
+    private class TimedIterator implements Iterator<File>, Closeable {
+        private final Iterator<File> files;
+        /** time spent in hasNext since the last file, where a lazy listing reads the folder */
+        private long pendingNanos;
+
+        TimedIterator(Iterator<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long start = System.nanoTime();
+            boolean more = files.hasNext();
+            pendingNanos += System.nanoTime() - start;
+            if (!more && pendingNanos > 0) {
+                // the end of the listing is no file, its time only counts towards the total
+                stages.get(Stage.LISTING).nanos.add(pendingNanos);
+                pendingNanos = 0;
+            }
+            return more;
+        }
+
+        @Override
+        public File next() {
+            long start = System.nanoTime();
+            File file = files.next();
+            record(Stage.LISTING, pendingNanos + System.nanoTime() - start, 0, 0);
+            pendingNanos = 0;
+            return file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (files instanceof Closeable) {
+                ((Closeable) files).close();
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javax.swing.JPanel;
 public class SettingsUI extends javax.swing.JDialog {
 
     LogicController controller = LogicController.getInstance();
+    private boolean showingSettings = false;
     
     public SettingsUI(java.awt.Frame parent, boolean modal) {
         super(parent, modal);
@@ -25,6 +26,12 @@ public class SettingsUI extends javax.swing.JDialog {
         else {suffixButton.setSelected(true);}
         
         if(dontRenameButton.isSelected()) {toggleRenamePanel(newFileSettings);} 
+        showEncoderSettings(controller.encoderSettings);
+        errorPolicyComboBox.setSelectedIndex(controller.errorPolicy.ordinal());
+        retriesSpinner.setValue(controller.errorRetries);
+        retriesSpinner.setEnabled(controller.errorPolicy == ErrorReport.Policy.RETRY);
+        transformField.setText(controller.transforms.key());
+        reuseCheckBox.setSelected(controller.reuseIdenticalFiles);
     }
 
     /**
@@ -54,6 +61,28 @@ public class SettingsUI extends javax.swing.JDialog {
         suffixButton = new javax.swing.JRadioButton();
         jLabel8 = new javax.swing.JLabel();
         addTextField = new javax.swing.JTextField();
+        jSeparator2 = new javax.swing.JSeparator();
+        encodingSettings = new javax.swing.JPanel();
+        jLabel2 = new javax.swing.JLabel();
+        presetComboBox = new javax.swing.JComboBox<>();
+        jLabel3 = new javax.swing.JLabel();
+        pngLevelSpinner = new javax.swing.JSpinner();
+        jLabel4 = new javax.swing.JLabel();
+        jpegQualitySpinner = new javax.swing.JSpinner();
+        progressiveCheckBox = new javax.swing.JCheckBox();
+        parallelPngCheckBox = new javax.swing.JCheckBox();
+        reuseCheckBox = new javax.swing.JCheckBox();
+        jSeparator3 = new javax.swing.JSeparator();
+        errorSettings = new javax.swing.JPanel();
+        jLabel5 = new javax.swing.JLabel();
+        errorPolicyComboBox = new javax.swing.JComboBox<>();
+        jLabel9 = new javax.swing.JLabel();
+        retriesSpinner = new javax.swing.JSpinner();
+        jSeparator4 = new javax.swing.JSeparator();
+        transformSettings = new javax.swing.JPanel();
+        jLabel10 = new javax.swing.JLabel();
+        transformField = new javax.swing.JTextField();
+        jLabel11 = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("Settings");
@@ -87,19 +116,9 @@ public class SettingsUI extends javax.swing.JDialog {
 
         renameWhichGroup.add(renameNewButton);
         renameNewButton.setText("Converted File");
-        renameNewButton.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                renameNewButtonActionPerformed(evt);
-            }
-        });
 
         renameWhichGroup.add(renameOriginalButton);
         renameOriginalButton.setText("Original File");
-        renameOriginalButton.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                renameOriginalButtonActionPerformed(evt);
-            }
-        });
 
         jLabel6.setText("Rename which file?");
 
@@ -107,19 +126,9 @@ public class SettingsUI extends javax.swing.JDialog {
 
         prefixOrSuffix.add(prefixButton);
         prefixButton.setText("Add Prefix");
-        prefixButton.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                prefixButtonActionPerformed(evt);
-            }
-        });
 
         prefixOrSuffix.add(suffixButton);
         suffixButton.setText("Add Suffix");
-        suffixButton.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                suffixButtonActionPerformed(evt);
-            }
-        });
 
         jLabel8.setText("Text to be added:");
 
@@ -173,6 +182,163 @@ public class SettingsUI extends javax.swing.JDialog {
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
+        jLabel2.setText("Encoder preset:");
+
+        presetComboBox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "Speed", "Balanced", "Size", "Custom" }));
+        presetComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                presetComboBoxActionPerformed(evt);
+            }
+        });
+
+        jLabel3.setText("PNG compression (0 = store):");
+
+        pngLevelSpinner.setModel(new javax.swing.SpinnerNumberModel(4, 0, 9, 1));
+        pngLevelSpinner.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                pngLevelSpinnerStateChanged(evt);
+            }
+        });
+
+        jLabel4.setText("JPEG quality (%):");
+
+        jpegQualitySpinner.setModel(new javax.swing.SpinnerNumberModel(75, 1, 100, 1));
+        jpegQualitySpinner.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                jpegQualitySpinnerStateChanged(evt);
+            }
+        });
+
+        progressiveCheckBox.setText("Progressive JPEG");
+        progressiveCheckBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                progressiveCheckBoxActionPerformed(evt);
+            }
+        });
+
+        parallelPngCheckBox.setText("Compress PNGs on all cores");
+        parallelPngCheckBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                parallelPngCheckBoxActionPerformed(evt);
+            }
+        });
+
+        reuseCheckBox.setText("Reuse outputs of identical files");
+        reuseCheckBox.setToolTipText("Keeps converted files in ~/.nmsvrfix/dedup and reuses them for copies of the same screenshot");
+
+        javax.swing.GroupLayout encodingSettingsLayout = new javax.swing.GroupLayout(encodingSettings);
+        encodingSettings.setLayout(encodingSettingsLayout);
+        encodingSettingsLayout.setHorizontalGroup(
+            encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(encodingSettingsLayout.createSequentialGroup()
+                .addGroup(encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jLabel2)
+                    .addComponent(jLabel3)
+                    .addComponent(jLabel4)
+                    .addComponent(progressiveCheckBox)
+                    .addComponent(parallelPngCheckBox)
+                    .addComponent(reuseCheckBox))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                .addGroup(encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
+                    .addComponent(presetComboBox, 0, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(pngLevelSpinner)
+                    .addComponent(jpegQualitySpinner))
+                .addGap(35, 35, 35))
+        );
+        encodingSettingsLayout.setVerticalGroup(
+            encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(encodingSettingsLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel2)
+                    .addComponent(presetComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel3)
+                    .addComponent(pngLevelSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(encodingSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel4)
+                    .addComponent(jpegQualitySpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(progressiveCheckBox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(parallelPngCheckBox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(reuseCheckBox)
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
+        jLabel5.setText("When a file fails:");
+
+        errorPolicyComboBox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "Skip and report", "Stop at first error", "Retry, then skip" }));
+        errorPolicyComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                errorPolicyComboBoxActionPerformed(evt);
+            }
+        });
+
+        jLabel9.setText("Retries:");
+
+        retriesSpinner.setModel(new javax.swing.SpinnerNumberModel(2, 0, 10, 1));
+
+        javax.swing.GroupLayout errorSettingsLayout = new javax.swing.GroupLayout(errorSettings);
+        errorSettings.setLayout(errorSettingsLayout);
+        errorSettingsLayout.setHorizontalGroup(
+            errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(errorSettingsLayout.createSequentialGroup()
+                .addGroup(errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jLabel5)
+                    .addComponent(jLabel9))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                .addGroup(errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
+                    .addComponent(errorPolicyComboBox, 0, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(retriesSpinner))
+                .addGap(35, 35, 35))
+        );
+        errorSettingsLayout.setVerticalGroup(
+            errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(errorSettingsLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel5)
+                    .addComponent(errorPolicyComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(errorSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel9)
+                    .addComponent(retriesSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
+        jLabel10.setText("Transforms:");
+
+        jLabel11.setText("squish, crop-eye:left|right, max:PIXELS, rotate:90|180|270");
+
+        javax.swing.GroupLayout transformSettingsLayout = new javax.swing.GroupLayout(transformSettings);
+        transformSettings.setLayout(transformSettingsLayout);
+        transformSettingsLayout.setHorizontalGroup(
+            transformSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(transformSettingsLayout.createSequentialGroup()
+                .addGroup(transformSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addGroup(transformSettingsLayout.createSequentialGroup()
+                        .addComponent(jLabel10)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(transformField))
+                    .addComponent(jLabel11))
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+        transformSettingsLayout.setVerticalGroup(
+            transformSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(transformSettingsLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(transformSettingsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel10)
+                    .addComponent(transformField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jLabel11)
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
         javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
         jPanel1.setLayout(jPanel1Layout);
         jPanel1Layout.setHorizontalGroup(
@@ -183,11 +349,17 @@ public class SettingsUI extends javax.swing.JDialog {
                         .addGap(27, 27, 27)
                         .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addComponent(jSeparator1, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE)
+                            .addComponent(jSeparator2, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE)
+                            .addComponent(jSeparator3, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE)
+                            .addComponent(jSeparator4, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE)
                             .addGroup(jPanel1Layout.createSequentialGroup()
                                 .addGap(6, 6, 6)
                                 .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
                                     .addComponent(jLabel1)
                                     .addComponent(newFileSettings, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                    .addComponent(encodingSettings, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                                    .addComponent(errorSettings, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                                    .addComponent(transformSettings, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                                     .addGroup(jPanel1Layout.createSequentialGroup()
                                         .addComponent(dontRenameButton)
                                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
@@ -212,6 +384,18 @@ public class SettingsUI extends javax.swing.JDialog {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(newFileSettings, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jSeparator2, javax.swing.GroupLayout.PREFERRED_SIZE, 10, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(encodingSettings, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jSeparator3, javax.swing.GroupLayout.PREFERRED_SIZE, 10, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(errorSettings, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jSeparator4, javax.swing.GroupLayout.PREFERRED_SIZE, 10, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(transformSettings, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(ConfirmButton, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addContainerGap())
         );
@@ -231,45 +415,99 @@ public class SettingsUI extends javax.swing.JDialog {
     }// </editor-fold>//GEN-END:initComponents
     
     private void dontRenameButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_dontRenameButtonActionPerformed
-        controller.shouldRename = false;
         toggleRenamePanel(newFileSettings);
     }//GEN-LAST:event_dontRenameButtonActionPerformed
     
     private void renameButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_renameButtonActionPerformed
-        controller.shouldRename = true;
         toggleRenamePanel(newFileSettings);
     }//GEN-LAST:event_renameButtonActionPerformed
     
     private void ConfirmButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_ConfirmButtonActionPerformed
-        if(renameButton.isSelected()) {
-            if (controller.isValidTextAddition(addTextField.getText())) {
-                controller.addTextToFileName = addTextField.getText();
-                this.setVisible(false);
-            }
-        } else {
-            this.setVisible(false);
+        // nothing is applied unless every setting is valid
+        TransformChain transforms = controller.parseTransforms(transformField.getText());
+        if (transforms == null) {
+            return;
+        }
+        if (renameButton.isSelected() && !controller.isValidTextAddition(addTextField.getText())) {
+            return;
         }
+        controller.shouldRename = renameButton.isSelected();
+        if (controller.shouldRename) {
+            controller.renameNewFile = renameNewButton.isSelected();
+            controller.addAsPrefix = prefixButton.isSelected();
+            controller.addTextToFileName = addTextField.getText();
+        }
+        controller.transforms = transforms;
+        controller.encoderSettings = readEncoderSettings();
+        controller.errorPolicy = ErrorReport.Policy.values()[errorPolicyComboBox.getSelectedIndex()];
+        controller.errorRetries = (Integer) retriesSpinner.getValue();
+        controller.reuseIdenticalFiles = reuseCheckBox.isSelected();
+        this.setVisible(false);
     }//GEN-LAST:event_ConfirmButtonActionPerformed
 
-    private void renameNewButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_renameNewButtonActionPerformed
-        controller.renameNewFile = true;
-    }//GEN-LAST:event_renameNewButtonActionPerformed
-
-    private void prefixButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_prefixButtonActionPerformed
-        controller.addAsPrefix = true;
-    }//GEN-LAST:event_prefixButtonActionPerformed
-
     private void addTextFieldActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_addTextFieldActionPerformed
         // no action
     }//GEN-LAST:event_addTextFieldActionPerformed
     
-    private void renameOriginalButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_renameOriginalButtonActionPerformed
-        controller.renameNewFile = false;
-    }//GEN-LAST:event_renameOriginalButtonActionPerformed
+    private void presetComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_presetComboBoxActionPerformed
+        int index = presetComboBox.getSelectedIndex();
+        if (!showingSettings && index < EncoderSettings.Preset.values().length) {
+            showEncoderSettings(EncoderSettings.Preset.values()[index].settings);
+        }
+    }//GEN-LAST:event_presetComboBoxActionPerformed
+
+    private void pngLevelSpinnerStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_pngLevelSpinnerStateChanged
+        matchPreset();
+    }//GEN-LAST:event_pngLevelSpinnerStateChanged
+
+    private void jpegQualitySpinnerStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_jpegQualitySpinnerStateChanged
+        matchPreset();
+    }//GEN-LAST:event_jpegQualitySpinnerStateChanged
+
+    private void progressiveCheckBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_progressiveCheckBoxActionPerformed
+        matchPreset();
+    }//GEN-LAST:event_progressiveCheckBoxActionPerformed
+
+    private void parallelPngCheckBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_parallelPngCheckBoxActionPerformed
+        matchPreset();
+    }//GEN-LAST:event_parallelPngCheckBoxActionPerformed
+
+    private void errorPolicyComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_errorPolicyComboBoxActionPerformed
+        retriesSpinner.setEnabled(errorPolicyComboBox.getSelectedIndex() == ErrorReport.Policy.RETRY.ordinal());
+    }//GEN-LAST:event_errorPolicyComboBoxActionPerformed
+    
+    /**
+     * Fills the encoder controls, selecting the matching preset or "Custom".
+     * @param settings the encoder settings to be shown
+     */
+    private void showEncoderSettings(EncoderSettings settings) {
+        showingSettings = true;
+        pngLevelSpinner.setValue(settings.pngCompressionLevel);
+        jpegQualitySpinner.setValue(Math.round(settings.jpegQuality * 100));
+        progressiveCheckBox.setSelected(settings.jpegProgressive);
+        parallelPngCheckBox.setSelected(settings.parallelPng);
+        EncoderSettings.Preset preset = settings.getPreset();
+        presetComboBox.setSelectedIndex(preset == null ? EncoderSettings.Preset.values().length : preset.ordinal());
+        showingSettings = false;
+    }
+    
+    /**
+     * Selects the preset matching the encoder controls after the user edited one.
+     */
+    private void matchPreset() {
+        if (!showingSettings) {
+            showEncoderSettings(readEncoderSettings());
+        }
+    }
     
-    private void suffixButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_suffixButtonActionPerformed
-        controller.addAsPrefix = false;
-    }//GEN-LAST:event_suffixButtonActionPerformed
+    /**
+     * @return the encoder settings currently shown by the controls
+     */
+    private EncoderSettings readEncoderSettings() {
+        return new EncoderSettings((Integer) pngLevelSpinner.getValue(),
+            (Integer) jpegQualitySpinner.getValue() / 100f, progressiveCheckBox.isSelected(),
+            parallelPngCheckBox.isSelected());
+    }
     
     /**
      * Recursive function for enabling/disabling all contents of a JPanel.
@@ -292,20 +530,42 @@ public class SettingsUI extends javax.swing.JDialog {
     private javax.swing.JButton ConfirmButton;
     private javax.swing.JTextField addTextField;
     private javax.swing.JRadioButton dontRenameButton;
+    private javax.swing.JPanel encodingSettings;
+    private javax.swing.JComboBox<String> errorPolicyComboBox;
+    private javax.swing.JPanel errorSettings;
     private javax.swing.JLabel jLabel1;
+    private javax.swing.JLabel jLabel10;
+    private javax.swing.JLabel jLabel11;
+    private javax.swing.JLabel jLabel2;
+    private javax.swing.JLabel jLabel3;
+    private javax.swing.JLabel jLabel4;
+    private javax.swing.JLabel jLabel5;
     private javax.swing.JLabel jLabel6;
     private javax.swing.JLabel jLabel7;
     private javax.swing.JLabel jLabel8;
+    private javax.swing.JLabel jLabel9;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JSeparator jSeparator1;
+    private javax.swing.JSeparator jSeparator2;
+    private javax.swing.JSeparator jSeparator3;
+    private javax.swing.JSeparator jSeparator4;
+    private javax.swing.JSpinner jpegQualitySpinner;
     private javax.swing.JPanel newFileSettings;
+    private javax.swing.JCheckBox parallelPngCheckBox;
+    private javax.swing.JSpinner pngLevelSpinner;
     private javax.swing.JRadioButton prefixButton;
     private javax.swing.ButtonGroup prefixOrSuffix;
+    private javax.swing.JComboBox<String> presetComboBox;
+    private javax.swing.JCheckBox progressiveCheckBox;
     private javax.swing.JRadioButton renameButton;
     private javax.swing.JRadioButton renameNewButton;
     private javax.swing.JRadioButton renameOriginalButton;
+    private javax.swing.JSpinner retriesSpinner;
+    private javax.swing.JCheckBox reuseCheckBox;
     private javax.swing.ButtonGroup renameWhichGroup;
     private javax.swing.ButtonGroup replaceOrCopyGroup;
     private javax.swing.JRadioButton suffixButton;
+    private javax.swing.JTextField transformField;
+    private javax.swing.JPanel transformSettings;
     // End of variables declaration//GEN-END:variables
 }
@@ -0,0 +1,152 @@
+package nmsvrscreenshotfix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Streams the candidate images of a source folder, optionally including its
+ * subfolders, one directory entry at a time. Nothing is collected up front, so
+ * the first file reaches the pipeline as soon as it is listed no matter how
+ * large the folder is. Entries are filtered by name before anything else, only
+ * names which are not images are checked for being a subfolder.
+ */
+class SourceWalker implements Iterable<File> {
+    private final Path root;
+    private final boolean recursive;
+    private final Predicate<String> nameFilter;
+    private final Path excludedFolder;
+
+    /**
+     * @param root the source folder
+     * @param recursive true to include files in subfolders
+     * @param nameFilter accepts the paths of candidate images
+     * @param excludedFolder a folder never descended into, e.g. a result folder
+     *  inside the source folder. May be null
+     */
+    SourceWalker(File root, boolean recursive, Predicate<String> nameFilter, File excludedFolder) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.recursive = recursive;
+        this.nameFilter = nameFilter;
+        this.excludedFolder = (excludedFolder == null) ? null : excludedFolder.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Walks the same tree without producing files, used to fill in the total
+     * for the progress bar while the conversion is already running.
+     * @return number of candidate images
+     */
+    int count() {
+        int total = 0;
+        try (Walk walk = new Walk()) {
+            while (walk.hasNext()) {
+                walk.next();
+                total++;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public Iterator<File> iterator() {
+        return new Walk();
+    }
+
+    /**
+     * Walk holding a single open directory stream. Subfolders are remembered
+     * and listed once the folder containing them has been fully read.
+     */
+    private class Walk implements Iterator<File>, Closeable {
+        private final Deque<Path> pendingFolders = new ArrayDeque<>();
+        private DirectoryStream<Path> openStream;
+        private Iterator<Path> openEntries;
+        private File nextFile;
+
+        Walk() {
+            pendingFolders.push(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextFile == null) {
+                if (openEntries == null) {
+                    if (pendingFolders.isEmpty()) {
+                        return false;
+                    }
+                    open(pendingFolders.pop());
+                    continue;
+                }
+                Path entry;
+                try {
+                    if (!openEntries.hasNext()) {
+                        close();
+                        continue;
+                    }
+                    entry = openEntries.next();
+                }
+                catch (DirectoryIteratorException ex) {
+                    System.err.println(">> Error listing folder: " + ex.getCause().getMessage());
+                    close();
+                    continue;
+                }
+                if (nameFilter.test(entry.toString())) {
+                    nextFile = entry.toFile();
+                }
+                else if (recursive && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)
+                        && !entry.toAbsolutePath().normalize().equals(excludedFolder)) {
+                    pendingFolders.push(entry);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File file = nextFile;
+            nextFile = null;
+            return file;
+        }
+
+        private void open(Path folder) {
+            try {
+                openStream = Files.newDirectoryStream(folder);
+                openEntries = openStream.iterator();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Cannot list folder '" + folder + "': " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Closes the folder currently being listed. Remaining subfolders are
+         * still listed if the walk continues.
+         */
+        @Override
+        public void close() {
+            if (openStream == null) {
+                return;
+            }
+            try {
+                openStream.close();
+            }
+            catch (IOException ex) {
+                System.err.println(">> Error closing folder listing: " + ex.getMessage());
+            }
+            openStream = null;
+            openEntries = null;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package nmsvrscreenshotfix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An ordered list of geometric transforms applied to every converted image:
+ * squish (width := height for images wider than tall), crop to the left or
+ * right eye (half) of a side by side image, downscale so neither side
+ * exceeds a maximum, and rotate by quarter turns.
+ *
+ * The transforms are never run one after another. Whatever their order, they
+ * compose into a single {@link Mapping} from a crop of the source to a scaled
+ * and rotated destination, which {@link TransformRenderer} produces in one pass
+ * over the pixels.
+ *
+ * A chain is written as its transforms separated by commas, e.g.
+ * "crop-eye:left,squish,max:1920,rotate:90". "squish" alone is the default.
+ */
+final class TransformChain {
+    /** the transform this program was written for */
+    static final TransformChain SQUISH = parse("squish");
+
+    enum Kind { SQUISH, CROP_EYE, MAX, ROTATE }
+
+    /** A single transform with its parameter. */
+    static final class Step {
+        final Kind kind;
+        /** 0 left or 1 right eye, maximum side in pixels, or clockwise quarter turns */
+        final int value;
+
+        Step(Kind kind, int value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case SQUISH:
+                    return "squish";
+                case CROP_EYE:
+                    return "crop-eye:" + (value == 0 ? "left" : "right");
+                case MAX:
+                    return "max:" + value;
+                default:
+                    return "rotate:" + (value * 90);
+            }
+        }
+    }
+
+    /**
+     * The combined effect of a chain on an image of a given size: the source
+     * rectangle [srcX, srcX + srcWidth) x [srcY, srcY + srcHeight) is scaled
+     * to scaledWidth x scaledHeight, then turned clockwise by quarterTurns.
+     */
+    static final class Mapping {
+        final int srcX;
+        final int srcY;
+        final int srcWidth;
+        final int srcHeight;
+        final int scaledWidth;
+        final int scaledHeight;
+        final int quarterTurns;
+
+        Mapping(int srcX, int srcY, int srcWidth, int srcHeight, int scaledWidth, int scaledHeight, int quarterTurns) {
+            this.srcX = srcX;
+            this.srcY = srcY;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.scaledWidth = scaledWidth;
+            this.scaledHeight = scaledHeight;
+            this.quarterTurns = quarterTurns;
+        }
+
+        /** @return width of the transformed image */
+        int width() {
+            return (quarterTurns % 2 == 0) ? scaledWidth : scaledHeight;
+        }
+
+        /** @return height of the transformed image */
+        int height() {
+            return (quarterTurns % 2 == 0) ? scaledHeight : scaledWidth;
+        }
+
+        /**
+         * @param width width of the source image
+         * @param height height of the source image
+         * @return true if the transformed image equals the source
+         */
+        boolean isIdentity(int width, int height) {
+            return srcX == 0 && srcY == 0 && srcWidth == width && srcHeight == height
+                && scaledWidth == width && scaledHeight == height && quarterTurns == 0;
+        }
+
+        /**
+         * @param height height of the source image
+         * @return true if every destination row is made from the source row
+         *  of the same index alone, so the image can be converted in bands
+         */
+        boolean isRowLocal(int height) {
+            return srcY == 0 && srcHeight == height && scaledHeight == height && quarterTurns == 0;
+        }
+
+        /**
+         * Crops the transformed image, mapping the rectangle back to the source.
+         * Edges falling between source pixels are rounded to the nearest one.
+         */
+        Mapping crop(int x, int y, int width, int height) {
+            int preX;
+            int preY;
+            int preWidth = width;
+            int preHeight = height;
+            switch (quarterTurns) {
+                case 1:
+                    preX = y;
+                    preY = scaledHeight - x - width;
+                    preWidth = height;
+                    preHeight = width;
+                    break;
+                case 2:
+                    preX = scaledWidth - x - width;
+                    preY = scaledHeight - y - height;
+                    break;
+                case 3:
+                    preX = scaledWidth - y - height;
+                    preY = x;
+                    preWidth = height;
+                    preHeight = width;
+                    break;
+                default:
+                    preX = x;
+                    preY = y;
+            }
+            double scaleX = (double) srcWidth / scaledWidth;
+            double scaleY = (double) srcHeight / scaledHeight;
+            int left = (int) Math.round(preX * scaleX);
+            int right = Math.max(left + 1, (int) Math.round((preX + preWidth) * scaleX));
+            int top = (int) Math.round(preY * scaleY);
+            int bottom = Math.max(top + 1, (int) Math.round((preY + preHeight) * scaleY));
+            return new Mapping(srcX + left, srcY + top, right - left, bottom - top, preWidth, preHeight, quarterTurns);
+        }
+
+        /** Scales the transformed image to a new size. */
+        Mapping scale(int width, int height) {
+            return (quarterTurns % 2 == 0)
+                ? new Mapping(srcX, srcY, srcWidth, srcHeight, width, height, quarterTurns)
+                : new Mapping(srcX, srcY, srcWidth, srcHeight, height, width, quarterTurns);
+        }
+
+        /** Turns the transformed image clockwise. */
+        Mapping rotate(int turns) {
+            return new Mapping(srcX, srcY, srcWidth, srcHeight, scaledWidth, scaledHeight, (quarterTurns + turns) % 4);
+        }
+
+        /**
+         * Scales the transformed image down, keeping its aspect ratio, so
+         * neither side exceeds maxSide. Smaller images are left as they are.
+         */
+        Mapping fit(int maxSide) {
+            int currentWidth = width();
+            int currentHeight = height();
+            double factor = (double) maxSide / Math.max(currentWidth, currentHeight);
+            if (factor >= 1.0) {
+                return this;
+            }
+            return scale(Math.max(1, (int) Math.round(currentWidth * factor)),
+                Math.max(1, (int) Math.round(currentHeight * factor)));
+        }
+
+        /**
+         * @return a mapping which scales a whole width x height image to newWidth x newHeight
+         */
+        static Mapping scaling(int width, int height, int newWidth, int newHeight) {
+            return new Mapping(0, 0, width, height, newWidth, newHeight, 0);
+        }
+    }
+
+    private final List<Step> steps;
+
+    private TransformChain(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @param spec transforms separated by commas: squish, crop-eye:left,
+     *  crop-eye:right, max:PIXELS, rotate:90, rotate:180 or rotate:270
+     * @return the chain
+     * @throws IllegalArgumentException describing the first invalid transform
+     */
+    static TransformChain parse(String spec) {
+        List<Step> steps = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String name = part.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) {
+                continue;
+            }
+            int colon = name.indexOf(':');
+            String argument = (colon < 0) ? "" : name.substring(colon + 1).trim();
+            switch ((colon < 0) ? name : name.substring(0, colon).trim()) {
+                case "squish":
+                    steps.add(new Step(Kind.SQUISH, 0));
+                    break;
+                case "crop-eye":
+                    if (!argument.equals("left") && !argument.equals("right")) {
+                        throw new IllegalArgumentException("crop-eye must be crop-eye:left or crop-eye:right");
+                    }
+                    steps.add(new Step(Kind.CROP_EYE, argument.equals("left") ? 0 : 1));
+                    break;
+                case "max":
+                    int pixels = parseNumber(argument, "max");
+                    if (pixels < 1) {
+                        throw new IllegalArgumentException("max must be at least 1 pixel");
+                    }
+                    steps.add(new Step(Kind.MAX, pixels));
+                    break;
+                case "rotate":
+                    int degrees = parseNumber(argument, "rotate");
+                    if (degrees % 90 != 0) {
+                        throw new IllegalArgumentException("rotate must be a multiple of 90 degrees");
+                    }
+                    steps.add(new Step(Kind.ROTATE, Math.floorMod(degrees / 90, 4)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown transform '" + part.trim() + "'");
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("no transforms given");
+        }
+        return new TransformChain(steps);
+    }
+
+    private static int parseNumber(String argument, String name) {
+        try {
+            return Integer.parseInt(argument);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(name + " needs a number, e.g. " + name + ":"
+                + (name.equals("max") ? "1920" : "90"));
+        }
+    }
+
+    /**
+     * Composes the chain for an image of the given size.
+     * @param width width of the source image
+     * @param height height of the source image
+     * @return the combined mapping from the source to the transformed image
+     */
+    Mapping mapFor(int width, int height) {
+        Mapping mapping = new Mapping(0, 0, width, height, width, height, 0);
+        for (Step step : steps) {
+            int currentWidth = mapping.width();
+            int currentHeight = mapping.height();
+            switch (step.kind) {
+                case SQUISH:
+                    if (currentWidth > currentHeight) {
+                        mapping = mapping.scale(currentHeight, currentHeight);
+                    }
+                    break;
+                case CROP_EYE:
+                    if (currentWidth > 1) {
+                        int eyeWidth = currentWidth / 2;
+                        mapping = mapping.crop((step.value == 0) ? 0 : currentWidth - eyeWidth, 0,
+                            eyeWidth, currentHeight);
+                    }
+                    break;
+                case MAX:
+                    mapping = mapping.fit(step.value);
+                    break;
+                default:
+                    mapping = mapping.rotate(step.value);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * @return true if the chain is the default squish alone
+     */
+    boolean isSquishOnly() {
+        return steps.size() == 1 && steps.get(0).kind == Kind.SQUISH;
+    }
+
+    /**
+     * @return the chain in the form {@link #parse} reads, also used in settings keys
+     */
+    String key() {
+        StringBuilder key = new StringBuilder();
+        for (Step step : steps) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(step);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public String toString() {
+        return key();
+    }
+}
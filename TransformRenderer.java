@@ -0,0 +1,217 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Produces the image described by a {@link TransformChain.Mapping} in a single
+ * pass over the source, without intermediate images.
+ *
+ * Mappings which only scale and crop rows, like squishing, go straight to the
+ * {@link HorizontalResampler} kernels. Any other mapping is rendered row by
+ * row: each source row of the crop is filtered horizontally once into a small
+ * ring holding as many rows as the vertical filter has taps, the rows in the
+ * ring are blended vertically into one destination row, and that row is
+ * written to where the rotation puts it. Both filters use the resampler's
+ * tables, so every transform follows the batch's scale mode.
+ */
+final class TransformRenderer {
+    private final HorizontalResampler resampler;
+
+    TransformRenderer(HorizontalResampler resampler) {
+        this.resampler = resampler;
+    }
+
+    /**
+     * @param source an image for which {@link HorizontalResampler#supports} is true
+     * @param mapping the mapping of the batch's transforms for the source's size
+     * @param pool pool providing the destination for images of a standard type
+     * @return the transformed image, in the source's pixel layout
+     */
+    BufferedImage render(BufferedImage source, TransformChain.Mapping mapping, ImageBufferPool pool) {
+        BufferedImage destination = (source.getType() == BufferedImage.TYPE_CUSTOM)
+            ? HorizontalResampler.createDestination(source, mapping.width(), mapping.height())
+            : pool.acquire(mapping.width(), mapping.height(), source.getType());
+        if (mapping.isRowLocal(source.getHeight())) {
+            resampler.resizeInto(cropColumns(source, mapping), destination);
+        } else {
+            renderRows(source, mapping, destination);
+        }
+        return destination;
+    }
+
+    /**
+     * @param image an image or band spanning the source's full width
+     * @param mapping a row local mapping
+     * @return a view of the columns the mapping reads from
+     */
+    static BufferedImage cropColumns(BufferedImage image, TransformChain.Mapping mapping) {
+        if (mapping.srcX == 0 && mapping.srcWidth == image.getWidth()) {
+            return image;
+        }
+        return image.getSubimage(mapping.srcX, 0, mapping.srcWidth, image.getHeight());
+    }
+
+    private void renderRows(BufferedImage source, TransformChain.Mapping mapping, BufferedImage destination) {
+        Samples src = new Samples(source.getRaster());
+        Samples dst = new Samples(destination.getRaster());
+        int channels = src.channels;
+        HorizontalResampler.FilterTable columns = resampler.tableFor(mapping.srcWidth, mapping.scaledWidth);
+        HorizontalResampler.FilterTable rows = resampler.tableFor(mapping.srcHeight, mapping.scaledHeight);
+
+        int[] line = new int[mapping.srcWidth * channels];
+        int[][] ring = new int[rows.maxTaps][mapping.scaledWidth * channels];
+        int[] ringRows = new int[rows.maxTaps];
+        Arrays.fill(ringRows, -1);
+        int[] out = new int[mapping.scaledWidth * channels];
+
+        int lastColumn = mapping.scaledWidth - 1;
+        int lastRow = mapping.scaledHeight - 1;
+        for (int row = 0; row <= lastRow; row++) {
+            int first = rows.first[row];
+            int taps = rows.taps[row];
+            Arrays.fill(out, HorizontalResampler.ROUNDING);
+            for (int tap = 0; tap < taps; tap++) {
+                int srcRow = first + tap;
+                int slot = srcRow % rows.maxTaps;
+                if (ringRows[slot] != srcRow) {
+                    src.readRow(mapping.srcY + srcRow, mapping.srcX, mapping.srcWidth, line);
+                    filterRow(line, columns, ring[slot], channels);
+                    ringRows[slot] = srcRow;
+                }
+                int weight = rows.weights[row * rows.maxTaps + tap];
+                int[] filtered = ring[slot];
+                for (int sample = 0; sample < out.length; sample++) {
+                    out[sample] += filtered[sample] * weight;
+                }
+            }
+            for (int sample = 0; sample < out.length; sample++) {
+                out[sample] >>>= HorizontalResampler.WEIGHT_BITS;
+            }
+
+            // scaled row r becomes a column, or a reversed row, of the rotated image
+            switch (mapping.quarterTurns) {
+                case 1:
+                    dst.writeRow(out, mapping.scaledWidth, lastRow - row, 0, 0, 1);
+                    break;
+                case 2:
+                    dst.writeRow(out, mapping.scaledWidth, lastColumn, lastRow - row, -1, 0);
+                    break;
+                case 3:
+                    dst.writeRow(out, mapping.scaledWidth, row, lastColumn, 0, -1);
+                    break;
+                default:
+                    dst.writeRow(out, mapping.scaledWidth, 0, row, 1, 0);
+            }
+        }
+    }
+
+    /**
+     * Filters one row of samples, channel by channel, into the scaled width.
+     */
+    private static void filterRow(int[] line, HorizontalResampler.FilterTable table, int[] target, int channels) {
+        int[] first = table.first;
+        int[] taps = table.taps;
+        int[] weights = table.weights;
+        int maxTaps = table.maxTaps;
+        for (int column = 0, pixel = 0; column < first.length; column++, pixel += channels) {
+            int srcPixel = first[column] * channels;
+            int weightIndex = column * maxTaps;
+            int tapCount = taps[column];
+            for (int channel = 0; channel < channels; channel++) {
+                int sum = HorizontalResampler.ROUNDING;
+                for (int tap = 0, srcIndex = srcPixel + channel; tap < tapCount; tap++, srcIndex += channels) {
+                    sum += line[srcIndex] * weights[weightIndex + tap];
+                }
+                target[pixel + channel] = sum >>> HorizontalResampler.WEIGHT_BITS;
+            }
+        }
+    }
+
+    /**
+     * Reads and writes the samples of a raster in one of the layouts the
+     * resampler supports, as one int per channel. Packed int pixels count
+     * as four 8 bit channels.
+     */
+    private static final class Samples {
+        private final byte[] bytes;
+        private final short[] shorts;
+        private final int[] ints;
+        private final int base;
+        private final int scan;
+        /** array elements per pixel */
+        private final int pixelStride;
+        final int channels;
+
+        Samples(Raster raster) {
+            DataBuffer buffer = raster.getDataBuffer();
+            bytes = (buffer instanceof DataBufferByte) ? ((DataBufferByte) buffer).getData() : null;
+            shorts = (buffer instanceof DataBufferUShort) ? ((DataBufferUShort) buffer).getData() : null;
+            ints = (bytes == null && shorts == null) ? ((DataBufferInt) buffer).getData() : null;
+            if (ints != null) {
+                SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                scan = model.getScanlineStride();
+                pixelStride = 1;
+                channels = 4;
+            } else {
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                scan = model.getScanlineStride();
+                pixelStride = model.getPixelStride();
+                channels = pixelStride;
+            }
+            base = buffer.getOffset() - raster.getSampleModelTranslateY() * scan
+                - raster.getSampleModelTranslateX() * pixelStride;
+        }
+
+        void readRow(int y, int x, int width, int[] line) {
+            int index = base + y * scan + x * pixelStride;
+            if (bytes != null) {
+                for (int sample = 0; sample < width * channels; sample++) {
+                    line[sample] = bytes[index + sample] & 0xFF;
+                }
+            } else if (shorts != null) {
+                for (int sample = 0; sample < width * channels; sample++) {
+                    line[sample] = shorts[index + sample] & 0xFFFF;
+                }
+            } else {
+                for (int pixel = 0, sample = 0; pixel < width; pixel++, sample += 4) {
+                    int value = ints[index + pixel];
+                    line[sample] = value & 0xFF;
+                    line[sample + 1] = (value >>> 8) & 0xFF;
+                    line[sample + 2] = (value >>> 16) & 0xFF;
+                    line[sample + 3] = value >>> 24;
+                }
+            }
+        }
+
+        /**
+         * Writes count pixels, the first at (x, y), each next one (stepX, stepY) further.
+         */
+        void writeRow(int[] samples, int count, int x, int y, int stepX, int stepY) {
+            int index = base + y * scan + x * pixelStride;
+            int step = stepY * scan + stepX * pixelStride;
+            for (int pixel = 0, sample = 0; pixel < count; pixel++, index += step) {
+                if (bytes != null) {
+                    for (int channel = 0; channel < channels; channel++) {
+                        bytes[index + channel] = (byte) samples[sample++];
+                    }
+                } else if (shorts != null) {
+                    for (int channel = 0; channel < channels; channel++) {
+                        shorts[index + channel] = (short) samples[sample++];
+                    }
+                } else {
+                    ints[index] = samples[sample] | (samples[sample + 1] << 8)
+                        | (samples[sample + 2] << 16) | (samples[sample + 3] << 24);
+                    sample += 4;
+                }
+            }
+        }
+    }
+}
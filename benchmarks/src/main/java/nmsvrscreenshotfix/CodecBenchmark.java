@@ -0,0 +1,89 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding an original screenshot and encoding a squished one, the two codec
+ * calls around the scale stage, both going through an {@link ImageCodecCache}
+ * like the batch does. One operation is one image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    /** format-colortype-WIDTHxHEIGHT, JPEG has no alpha so there is no jpg-argb */
+    @Param({"png-rgb-2560x1440", "png-argb-2560x1440", "png-gray-2560x1440",
+            "jpg-rgb-2560x1440", "jpg-gray-2560x1440",
+            "png-rgb-3840x2160", "jpg-rgb-3840x2160"})
+    public String image;
+
+    /** encoder preset, see EncoderSettings.Preset */
+    @Param({"speed", "balanced", "size"})
+    public String preset;
+
+    private String formatName;
+    private EncoderSettings settings;
+    private ImageCodecCache codecs;
+    private byte[] originalFile;
+    private BufferedImage squished;
+
+    @Setup
+    public void generate() throws IOException {
+        String[] parts = image.split("-");
+        formatName = parts[0];
+        int[] size = SyntheticScreenshots.dimensions(parts[2]);
+        int imageType = SyntheticScreenshots.imageType(parts[1]);
+        originalFile = SyntheticScreenshots.encode(
+            SyntheticScreenshots.create(size[0], size[1], imageType, 1), formatName);
+        squished = SyntheticScreenshots.create(size[1], size[1], imageType, 2);
+        settings = EncoderSettings.Preset.valueOf(preset.toUpperCase(Locale.ROOT)).settings;
+        codecs = new ImageCodecCache();
+    }
+
+    @TearDown
+    public void dispose() {
+        codecs.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(originalFile))) {
+            ImageReader reader = codecs.takeReader(stream, formatName);
+            try {
+                reader.setInput(stream, true, true);
+                return reader.read(0);
+            }
+            finally {
+                codecs.returnReader(reader, formatName);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return settings.encode(squished, formatName, codecs);
+    }
+}
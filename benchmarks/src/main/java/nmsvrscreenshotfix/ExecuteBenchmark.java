@@ -0,0 +1,179 @@
+package nmsvrscreenshotfix;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole batch through {@link LogicController#execute}: listing, probing,
+ * decoding, squishing, encoding and writing a generated folder of screenshots.
+ * Every invocation converts the full folder again, one operation is one image.
+ * Allocation per image is printed after each iteration, counted for all
+ * threads instead of only the benchmark thread like gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecuteBenchmark {
+    private static final int FILE_COUNT = 24;
+
+    @Param({"2560x1440"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private Path sourceFolder;
+    private Path resultFolder;
+    private PrintStream originalOut;
+    private HeapChurn churn;
+    private long imagesInIteration;
+
+    /**
+     * Writes half PNG, half JPEG screenshots plus a few already square ones,
+     * which are probed and skipped like in a real screenshot folder.
+     */
+    @Setup
+    public void generate() throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int[] dimensions = SyntheticScreenshots.dimensions(size);
+        sourceFolder = Files.createTempDirectory("nmsvr-bench-source");
+        resultFolder = Files.createTempDirectory("nmsvr-bench-result");
+        for (int fileIndex = 0; fileIndex < FILE_COUNT; fileIndex++) {
+            boolean square = fileIndex % 8 == 7;
+            String formatName = (fileIndex % 2 == 0) ? "png" : "jpg";
+            BufferedImage image = SyntheticScreenshots.create(square ? dimensions[1] : dimensions[0],
+                dimensions[1], BufferedImage.TYPE_3BYTE_BGR, fileIndex);
+            Files.write(sourceFolder.resolve("screenshot" + fileIndex + "." + formatName),
+                SyntheticScreenshots.encode(image, formatName));
+        }
+
+        LogicController controller = LogicController.getInstance();
+        controller.myUI = new SilentView();
+        controller.sourcePath = sourceFolder.toString();
+        controller.resultPath = resultFolder.toString();
+        controller.shouldRename = true;
+        controller.renameNewFile = true;
+        controller.skipUnchangedFiles = false;
+        controller.workerCount = workers;
+
+        // the controller logs every file to stdout
+        originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        churn = new HeapChurn();
+        imagesInIteration = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_COUNT)
+    public int execute() {
+        LogicController controller = LogicController.getInstance();
+        controller.execute();
+        imagesInIteration += FILE_COUNT;
+        return controller.getTotalFiles();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportAllocation() throws Exception {
+        long allocated = churn.allocatedBytes();
+        churn.close();
+        if (imagesInIteration > 0) {
+            originalOut.printf("allocated %.0f bytes per image (all threads)%n", (double) allocated / imagesInIteration);
+        }
+    }
+
+    @TearDown
+    public void deleteFolders() throws IOException {
+        System.setOut(originalOut);
+        for (Path folder : new Path[] { sourceFolder, resultFolder }) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Ignores everything the controller reports.
+     */
+    private static class SilentView implements ExecutionView {
+        @Override
+        public void updateProgressBar(int value) {
+        }
+
+        @Override
+        public void toggleUI() {
+        }
+
+        @Override
+        public void warningReplacingFiles() {
+        }
+
+        @Override
+        public void runReport(String report) {
+        }
+
+        @Override
+        public void cancelPopup(int converted) {
+        }
+
+        @Override
+        public void completePopup(int converted) {
+        }
+
+        @Override
+        public void errorReport(ErrorReport errors) {
+        }
+
+        @Override
+        public void warningEmptyText() {
+        }
+
+        @Override
+        public void warningExceededTextLimit() {
+        }
+
+        @Override
+        public void warningInvalidText(char invalidChar) {
+        }
+
+        @Override
+        public void warningInvalidTransform(String problem) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package nmsvrscreenshotfix;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Estimates the bytes allocated by all threads from what the garbage collector
+ * frees plus the growth of the heap. JMH's GC profiler reads per-thread
+ * counters, which miss threads that end before the measurement does, like the
+ * pipeline workers started by every batch.
+ */
+final class HeapChurn implements NotificationListener, AutoCloseable {
+    private final AtomicLong collectedBytes = new AtomicLong();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final long startUsed;
+
+    HeapChurn() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+        startUsed = heapUsed();
+    }
+
+    /**
+     * @return bytes allocated since this object was created
+     */
+    long allocatedBytes() {
+        return collectedBytes.get() + heapUsed() - startUsed;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+        Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+        long freed = 0;
+        for (Map.Entry<String, MemoryUsage> pool : before.entrySet()) {
+            MemoryUsage afterPool = after.get(pool.getKey());
+            if (afterPool != null) {
+                freed += pool.getValue().getUsed() - afterPool.getUsed();
+            }
+        }
+        collectedBytes.addAndGet(Math.max(0, freed));
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (NotificationEmitter emitter : emitters) {
+            emitter.removeNotificationListener(this);
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
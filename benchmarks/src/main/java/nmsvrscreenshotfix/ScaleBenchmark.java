@@ -0,0 +1,88 @@
+package nmsvrscreenshotfix;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Squishing a decoded screenshot to a square, with every resampling mode of
+ * {@link HorizontalResampler} and with the Java2D path used for layouts the
+ * resampler does not support. One operation is one image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleBenchmark {
+
+    @Param({"2560x1440", "3840x2160"})
+    public String size;
+
+    @Param({"rgb", "argb", "gray", "intrgb"})
+    public String colorType;
+
+    @Param({"NEAREST", "BILINEAR", "AREA_AVERAGE", "JAVA2D"})
+    public String mode;
+
+    private BufferedImage original;
+    private HorizontalResampler resampler;
+    private ImageBufferPool pool;
+
+    @Setup
+    public void generate() {
+        int[] dimensions = SyntheticScreenshots.dimensions(size);
+        original = SyntheticScreenshots.create(dimensions[0], dimensions[1],
+            SyntheticScreenshots.imageType(colorType), 1);
+        if (!mode.equals("JAVA2D")) {
+            resampler = new HorizontalResampler(HorizontalResampler.Mode.valueOf(mode));
+        }
+        pool = new ImageBufferPool(Long.MAX_VALUE);
+    }
+
+    /**
+     * Allocates a new destination for every image.
+     */
+    @Benchmark
+    public BufferedImage squish() {
+        int height = original.getHeight();
+        if (resampler != null) {
+            return resampler.resize(original, height);
+        }
+        BufferedImage outputImage = new BufferedImage(height, height, original.getType());
+        Graphics2D g2d = outputImage.createGraphics();
+        g2d.drawImage(original, 0, 0, height, height, null);
+        g2d.dispose();
+        return outputImage;
+    }
+
+    /**
+     * Resamples into a destination from the buffer pool, as the scale stage does.
+     */
+    @Benchmark
+    public BufferedImage squishPooled() {
+        int height = original.getHeight();
+        BufferedImage outputImage = pool.acquire(height, height, original.getType());
+        if (resampler != null) {
+            resampler.resizeInto(original, outputImage);
+        } else {
+            Graphics2D g2d = outputImage.createGraphics();
+            g2d.drawImage(original, 0, 0, height, height, null);
+            g2d.dispose();
+        }
+        pool.release(outputImage);
+        return outputImage;
+    }
+}
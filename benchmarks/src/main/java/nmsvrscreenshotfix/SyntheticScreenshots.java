@@ -0,0 +1,102 @@
+package nmsvrscreenshotfix;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates stand-ins for VR screenshots: smooth sky gradients, hard edged
+ * shapes and sensor-like noise, so PNG and JPEG compress about as well as they
+ * do on real captures. The same seed always yields the same image.
+ */
+final class SyntheticScreenshots {
+
+    private SyntheticScreenshots() {
+    }
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @param imageType a BufferedImage type other than TYPE_CUSTOM
+     * @param seed seed for shapes and noise
+     * @return the generated image
+     */
+    static BufferedImage create(int width, int height, int imageType, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xFFFFFF)),
+            width, height, new Color(random.nextInt(0xFFFFFF))));
+        g2d.fillRect(0, 0, width, height);
+        for (int shape = 0; shape < 40; shape++) {
+            g2d.setColor(new Color(random.nextInt(), true));
+            int size = 20 + random.nextInt(Math.max(1, height / 4));
+            g2d.fillOval(random.nextInt(width), random.nextInt(height), size * 2, size);
+        }
+        g2d.dispose();
+
+        // low amplitude noise on every pixel
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = image.getRGB(x, y);
+                int noise = random.nextInt(7) - 3;
+                int red = clamp(((argb >> 16) & 0xFF) + noise);
+                int green = clamp(((argb >> 8) & 0xFF) + noise);
+                int blue = clamp((argb & 0xFF) + noise);
+                image.setRGB(x, y, (argb & 0xFF000000) | (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @param image image to be encoded
+     * @param formatName ImageIO format name, e.g. png or jpg
+     * @return the encoded file contents
+     * @throws IOException if no writer supports the image
+     */
+    static byte[] encode(BufferedImage image, String formatName) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, formatName, encoded)) {
+            throw new IOException("No " + formatName + " writer for image type " + image.getType());
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * @param colorType rgb, argb, gray or intrgb
+     * @return the matching BufferedImage type
+     */
+    static int imageType(String colorType) {
+        switch (colorType) {
+            case "rgb":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "argb":
+                return BufferedImage.TYPE_4BYTE_ABGR;
+            case "gray":
+                return BufferedImage.TYPE_BYTE_GRAY;
+            case "intrgb":
+                return BufferedImage.TYPE_INT_RGB;
+            default:
+                throw new IllegalArgumentException("Unknown color type " + colorType);
+        }
+    }
+
+    /**
+     * @param size dimensions written as WIDTHxHEIGHT
+     * @return width and height
+     */
+    static int[] dimensions(String size) {
+        String[] parts = size.split("x");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
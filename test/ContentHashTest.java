@@ -0,0 +1,42 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ContentHashTest {
+
+    @Test
+    void matchesTheReferenceVectors() {
+        assertEquals(0xef46db3751d8e999L, ContentHash.xxh64(new byte[0]));
+        assertEquals(0x44bc2cf5ad770999L, ContentHash.xxh64("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0xfbcea83c8a378bf1L,
+            ContentHash.xxh64("Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void textIsHashedAsUtf8() {
+        assertEquals("44bc2cf5ad770999", ContentHash.ofText("abc"));
+    }
+
+    @Test
+    void fileHashDoesNotDependOnTheBuffer(@TempDir Path folder) throws IOException {
+        // longer than the buffer and not a whole number of stripes
+        byte[] data = new byte[ContentHash.BUFFER_BYTES * 3 + 77];
+        new Random(11).nextBytes(data);
+        File file = folder.resolve("data.bin").toFile();
+        Files.write(file.toPath(), data);
+
+        long expected = ContentHash.xxh64(data);
+        assertEquals(expected, ContentHash.of(file, new byte[ContentHash.BUFFER_BYTES]));
+        assertEquals(expected, ContentHash.of(file, new byte[ContentHash.BUFFER_BYTES * 2]));
+    }
+}
@@ -0,0 +1,120 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HorizontalResamplerTest {
+    private static final int[] TYPES = {
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY,
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+    };
+    private static final int[][] WIDTHS = { { 2560, 1440 }, { 3840, 1080 }, { 7, 3 }, { 3, 7 }, { 1, 5 }, { 5, 1 } };
+
+    private static BufferedImage filled(int type, int width, int argb) {
+        BufferedImage image = new BufferedImage(width, 3, type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
+    @Test
+    void weightsOfEveryColumnSumToOne() {
+        int[][] sizes = { { 2560, 1440 }, { 3840, 1080 }, { 1440, 256 }, { 7, 3 }, { 3, 7 }, { 1000, 1000 },
+            { 1, 5 }, { 5, 1 } };
+        for (HorizontalResampler.Mode mode : HorizontalResampler.Mode.values()) {
+            HorizontalResampler resampler = new HorizontalResampler(mode);
+            for (int[] size : sizes) {
+                HorizontalResampler.FilterTable table = resampler.tableFor(size[0], size[1]);
+                for (int column = 0; column < size[1]; column++) {
+                    String where = mode + " " + size[0] + " -> " + size[1] + ", column " + column;
+                    int taps = table.taps[column];
+                    assertTrue(taps >= 1 && taps <= table.maxTaps, where);
+                    assertTrue(table.first[column] >= 0 && table.first[column] + taps <= size[0], where);
+                    int sum = 0;
+                    for (int tap = 0; tap < taps; tap++) {
+                        int weight = table.weights[column * table.maxTaps + tap];
+                        assertTrue(weight >= 0, where);
+                        sum += weight;
+                    }
+                    assertEquals(1 << HorizontalResampler.WEIGHT_BITS, sum, where);
+                }
+            }
+        }
+    }
+
+    @Test
+    void flatRowsStayFlat() {
+        // weights adding up to anything but one in fixed point would shift or overflow the samples
+        for (HorizontalResampler.Mode mode : HorizontalResampler.Mode.values()) {
+            HorizontalResampler resampler = new HorizontalResampler(mode);
+            for (int type : TYPES) {
+                for (int argb : new int[] { 0xFFFFFFFF, 0xFF000000, 0x80FFFFFF }) {
+                    for (int[] widths : WIDTHS) {
+                        BufferedImage source = filled(type, widths[0], argb);
+                        BufferedImage resized = resampler.resize(source, widths[1]);
+                        assertEquals(widths[1], resized.getWidth());
+                        assertEquals(type, resized.getType());
+                        int expected = source.getRGB(0, 0);
+                        for (int x = 0; x < widths[1]; x++) {
+                            assertEquals(expected, resized.getRGB(x, 1),
+                                mode + " type " + type + " " + widths[0] + " -> " + widths[1] + ", column " + x);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void nearestCopiesSourceColumns() {
+        BufferedImage source = new BufferedImage(8, 1, BufferedImage.TYPE_3BYTE_BGR);
+        for (int x = 0; x < 8; x++) {
+            source.setRGB(x, 0, x * 0x101010);
+        }
+        BufferedImage resized = new HorizontalResampler(HorizontalResampler.Mode.NEAREST).resize(source, 4);
+        for (int x = 0; x < 4; x++) {
+            assertEquals(source.getRGB(x * 2 + 1, 0), resized.getRGB(x, 0), "column " + x);
+        }
+    }
+
+    @Test
+    void nearestBlitPicksTheTableColumnsAndOverwritesTheDestination() {
+        HorizontalResampler resampler = new HorizontalResampler(HorizontalResampler.Mode.NEAREST);
+        Random random = new Random(3);
+        for (int type : TYPES) {
+            for (int[] widths : WIDTHS) {
+                BufferedImage source = new BufferedImage(widths[0], 3, type);
+                for (int y = 0; y < source.getHeight(); y++) {
+                    for (int x = 0; x < widths[0]; x++) {
+                        source.setRGB(x, y, random.nextInt());
+                    }
+                }
+                // a pooled destination still holds the previous image
+                BufferedImage destination = filled(type, widths[1], 0xFFFFFFFF);
+                resampler.resizeInto(source, destination);
+                HorizontalResampler.FilterTable table = resampler.tableFor(widths[0], widths[1]);
+                for (int x = 0; x < widths[1]; x++) {
+                    // a center exactly between two columns may take the left one
+                    boolean tie = (2 * x + 1) * widths[0] % (2 * widths[1]) == 0;
+                    for (int y = 0; y < source.getHeight(); y++) {
+                        int picked = destination.getRGB(x, y);
+                        String where = "type " + type + " " + widths[0] + " -> " + widths[1] + ", column " + x;
+                        if (tie && picked != source.getRGB(table.first[x], y)) {
+                            assertEquals(source.getRGB(table.first[x] - 1, y), picked, where);
+                        } else {
+                            assertEquals(source.getRGB(table.first[x], y), picked, where);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelPngWriterTest {
+
+    private static long adler32(byte[] data, int from, int to) {
+        Adler32 checksum = new Adler32();
+        checksum.update(data, from, to - from);
+        return checksum.getValue();
+    }
+
+    @Test
+    void combinedAdler32MatchesTheWholeSequence() {
+        // long enough for the sums to wrap around the modulus several times
+        byte[] data = new byte[300_000];
+        new Random(5).nextBytes(data);
+        for (int split : new int[] { 0, 1, 65520, 65521, 65522, 131042, 299_999, 300_000 }) {
+            long combined = ParallelPngWriter.combineAdler32(adler32(data, 0, split),
+                adler32(data, split, data.length), data.length - split);
+            assertEquals(adler32(data, 0, data.length), combined, "split at " + split);
+        }
+    }
+
+    @Test
+    void combinedAdler32HandlesSaturatedSums() {
+        byte[] ones = new byte[100_000];
+        Arrays.fill(ones, (byte) 0xFF);
+        long combined = ParallelPngWriter.combineAdler32(adler32(ones, 0, 5552),
+            adler32(ones, 5552, ones.length), ones.length - 5552);
+        assertEquals(adler32(ones, 0, ones.length), combined);
+    }
+
+    @Test
+    void encodedImageDecodesToTheSamePixels() throws IOException {
+        // several blocks, so the stream is stitched from independently deflated parts
+        BufferedImage image = new BufferedImage(700, 500, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(9);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 3) << 16 | (y * 5) << 8 | random.nextInt(4));
+            }
+        }
+        for (int level : new int[] { 0, 6 }) {
+            byte[] png = ParallelPngWriter.encode(image, level);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+            assertEquals(image.getWidth(), decoded.getWidth());
+            assertEquals(image.getHeight(), decoded.getHeight());
+            assertArrayEquals(image.getRGB(0, 0, 700, 500, null, 0, 700),
+                decoded.getRGB(0, 0, 700, 500, null, 0, 700), "level " + level);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProcessedManifestTest {
+    @TempDir
+    Path folder;
+
+    private File file(String name, int size) throws IOException {
+        File file = folder.resolve(name).toFile();
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+
+    private File journal() {
+        return folder.resolve(ProcessedManifest.JOURNAL_NAME).toFile();
+    }
+
+    private void writeJournal(String... lines) throws IOException {
+        Files.write(journal().toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String done(File source) {
+        return "done\t" + source.getAbsolutePath() + "\t" + source.length() + "\t" + source.lastModified() + "\t";
+    }
+
+    @Test
+    void journalOfAnInterruptedBatchIsReplayed() throws IOException {
+        File source = file("a.png", 10);
+        File output = file("a_fix.png", 5);
+        ProcessedManifest.load(folder.toFile(), "key", true).record(source, output);
+
+        ProcessedManifest resumed = ProcessedManifest.load(folder.toFile(), "key", true);
+        assertTrue(resumed.isUnchanged(source));
+        assertTrue(resumed.isOutput(output.getAbsolutePath()));
+        assertFalse(resumed.isOutput(source.getAbsolutePath()));
+    }
+
+    @Test
+    void changedOrMissingFilesAreNotSkipped() throws IOException {
+        File source = file("a.png", 10);
+        File output = file("a_fix.png", 5);
+        ProcessedManifest.load(folder.toFile(), "key", true).record(source, output);
+
+        assertTrue(output.delete());
+        assertFalse(ProcessedManifest.load(folder.toFile(), "key", true).isUnchanged(source));
+        Files.write(output.toPath(), new byte[5]);
+        Files.write(source.toPath(), new byte[11]);
+        assertFalse(ProcessedManifest.load(folder.toFile(), "key", true).isUnchanged(source));
+    }
+
+    @Test
+    void tornLinesAreIgnored() throws IOException {
+        File first = file("a.png", 10);
+        File torn = file("b.png", 10);
+        writeJournal("#settings\tkey", done(first), "done\t" + torn.getAbsolutePath() + "\t10");
+
+        ProcessedManifest manifest = ProcessedManifest.load(folder.toFile(), "key", true);
+        assertTrue(manifest.isUnchanged(first));
+        assertFalse(manifest.isUnchanged(torn));
+
+        // the next record starts on a line of its own
+        File next = file("c.png", 10);
+        manifest.record(next, null);
+        ProcessedManifest resumed = ProcessedManifest.load(folder.toFile(), "key", true);
+        assertTrue(resumed.isUnchanged(first));
+        assertFalse(resumed.isUnchanged(torn));
+        assertTrue(resumed.isUnchanged(next));
+    }
+
+    @Test
+    void unparsableNumbersAreIgnored() throws IOException {
+        File source = file("a.png", 10);
+        writeJournal("#settings\tkey", "done\t" + source.getAbsolutePath() + "\t1x\t2\t", "");
+        assertFalse(ProcessedManifest.load(folder.toFile(), "key", true).isUnchanged(source));
+    }
+
+    @Test
+    void journalOfOtherSettingsIsStartedOver() throws IOException {
+        File source = file("a.png", 10);
+        ProcessedManifest.load(folder.toFile(), "old", true).record(source, null);
+
+        ProcessedManifest manifest = ProcessedManifest.load(folder.toFile(), "new", true);
+        assertFalse(manifest.isUnchanged(source));
+        File other = file("b.png", 10);
+        manifest.record(other, null);
+
+        List<String> lines = Files.readAllLines(journal().toPath(), StandardCharsets.UTF_8);
+        assertEquals("#settings\tnew", lines.get(0));
+        assertEquals(2, lines.size());
+        assertFalse(ProcessedManifest.load(folder.toFile(), "old", true).isUnchanged(source));
+    }
+
+    @Test
+    void pendingRenamesOutliveSettingsChanges() throws IOException {
+        File original = file("a.png", 10);
+        File renamed = folder.resolve("a_old.png").toFile();
+        ProcessedManifest.load(folder.toFile(), "old", true).recordRename(original, renamed);
+        assertTrue(original.renameTo(renamed));
+
+        ProcessedManifest manifest = ProcessedManifest.load(folder.toFile(), "new", true);
+        assertEquals(original.getAbsoluteFile(), manifest.getRenamedOriginal(renamed));
+        assertEquals(original.getAbsoluteFile(),
+            ProcessedManifest.load(folder.toFile(), "new", true).getRenamedOriginal(renamed));
+
+        manifest.record(renamed, null);
+        assertNull(ProcessedManifest.load(folder.toFile(), "new", true).getRenamedOriginal(renamed));
+    }
+
+    @Test
+    void fullRescanKeepsEarlierRecords() throws IOException {
+        File source = file("a.png", 10);
+        File output = file("a_fix.png", 5);
+        ProcessedManifest earlier = ProcessedManifest.load(folder.toFile(), "key", true);
+        earlier.record(source, output);
+        earlier.save();
+
+        ProcessedManifest rescan = ProcessedManifest.load(folder.toFile(), "key", false);
+        assertFalse(rescan.isUnchanged(source));
+        assertTrue(rescan.isOutput(output.getAbsolutePath()));
+        rescan.record(file("b.png", 10), null);
+        rescan.save();
+
+        ProcessedManifest next = ProcessedManifest.load(folder.toFile(), "key", true);
+        assertTrue(next.isUnchanged(source));
+        assertTrue(next.isOutput(output.getAbsolutePath()));
+    }
+
+    @Test
+    void outputsOfOtherSettingsOutliveSaves() throws IOException {
+        File source = file("a.png", 10);
+        File output = file("a_fix.png", 5);
+        ProcessedManifest earlier = ProcessedManifest.load(folder.toFile(), "old", true);
+        earlier.record(source, output);
+        earlier.save();
+
+        ProcessedManifest changed = ProcessedManifest.load(folder.toFile(), "new", true);
+        assertFalse(changed.isUnchanged(source));
+        changed.record(source, file("a_new.png", 5));
+        changed.save();
+
+        ProcessedManifest next = ProcessedManifest.load(folder.toFile(), "new", true);
+        assertTrue(next.isUnchanged(source));
+        assertTrue(next.isOutput(output.getAbsolutePath()));
+        assertFalse(next.isOutput(source.getAbsolutePath()));
+    }
+
+    @Test
+    void saveMovesTheJournalIntoTheManifest() throws IOException {
+        File source = file("a.png", 10);
+        ProcessedManifest manifest = ProcessedManifest.load(folder.toFile(), "key", true);
+        manifest.record(source, null);
+        manifest.save();
+
+        assertFalse(journal().exists());
+        assertTrue(ProcessedManifest.load(folder.toFile(), "key", true).isUnchanged(source));
+        assertFalse(ProcessedManifest.load(folder.toFile(), "other", true).isUnchanged(source));
+        assertFalse(ProcessedManifest.load(folder.toFile(), "key", false).isUnchanged(source));
+    }
+}
@@ -0,0 +1,74 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RenditionTest {
+
+    @Test
+    void fullIsTheConvertedImageAsIs() {
+        Rendition full = Rendition.parse("full");
+        assertTrue(full.isFull());
+        assertEquals("full", full.key());
+        assertSame(EncoderSettings.DEFAULT, full.settingsFor(EncoderSettings.DEFAULT));
+        assertEquals("png", full.formatFor("png"));
+    }
+
+    @Test
+    void settingsAreParsed() {
+        Rendition web = Rendition.parse(" suffix:_web , MAX:1920,format:JPG,quality:85");
+        assertEquals("_web", web.suffix);
+        assertEquals(1920, web.maxSide);
+        assertEquals("jpg", web.formatName);
+        assertEquals(85, web.jpegQuality);
+        assertEquals("suffix:_web,max:1920,format:jpg,quality:85", web.key());
+        assertEquals("jpg", web.formatFor("png"));
+        assertEquals(0.85f, web.settingsFor(EncoderSettings.DEFAULT).jpegQuality, 1e-6);
+    }
+
+    @Test
+    void maxFitsTheTransformedImage() {
+        TransformChain.Mapping squished = TransformChain.SQUISH.mapFor(2560, 1440);
+        TransformChain.Mapping thumb = Rendition.parse("suffix:_t,max:256").mapFor(squished);
+        assertEquals(256, thumb.width());
+        assertEquals(256, thumb.height());
+        assertEquals(2560, thumb.srcWidth);
+    }
+
+    @Test
+    void listKeepsItsOrderAndParsesBack() {
+        String spec = "full;suffix:_web,max:1920,format:jpg,quality:85;suffix:_thumb,max:256";
+        List<Rendition> renditions = Rendition.parseList(spec);
+        assertEquals(3, renditions.size());
+        assertEquals("_thumb", renditions.get(2).suffix);
+        assertNull(renditions.get(2).formatName);
+        assertEquals(spec, Rendition.key(renditions));
+        assertEquals(spec, Rendition.key(Rendition.parseList(Rendition.key(renditions))));
+    }
+
+    @Test
+    void invalidRenditionsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("size:10"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("format:gif"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("quality:0"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("quality:101"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("max:0"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("max:wide"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("suffix:"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parse("suffix:a/b"));
+    }
+
+    @Test
+    void listNeedsDistinctSuffixes() {
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parseList("full;max:1920"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parseList("suffix:_a;suffix:_A,max:10"));
+        assertThrows(IllegalArgumentException.class, () -> Rendition.parseList(" ; "));
+    }
+}
@@ -0,0 +1,102 @@
+package nmsvrscreenshotfix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TransformChainTest {
+
+    private static void assertMapping(TransformChain.Mapping mapping, int srcX, int srcY, int srcWidth,
+            int srcHeight, int scaledWidth, int scaledHeight, int quarterTurns) {
+        assertEquals(srcX, mapping.srcX, "srcX");
+        assertEquals(srcY, mapping.srcY, "srcY");
+        assertEquals(srcWidth, mapping.srcWidth, "srcWidth");
+        assertEquals(srcHeight, mapping.srcHeight, "srcHeight");
+        assertEquals(scaledWidth, mapping.scaledWidth, "scaledWidth");
+        assertEquals(scaledHeight, mapping.scaledHeight, "scaledHeight");
+        assertEquals(quarterTurns, mapping.quarterTurns, "quarterTurns");
+    }
+
+    @Test
+    void squishMakesWideImagesSquare() {
+        TransformChain.Mapping mapping = TransformChain.SQUISH.mapFor(2560, 1440);
+        assertMapping(mapping, 0, 0, 2560, 1440, 1440, 1440, 0);
+        assertTrue(mapping.isRowLocal(1440));
+        assertTrue(TransformChain.SQUISH.mapFor(1000, 1440).isIdentity(1000, 1440));
+    }
+
+    @Test
+    void cropEyeBeforeSquishCropsTheSource() {
+        assertMapping(TransformChain.parse("crop-eye:left,squish").mapFor(3840, 1080), 0, 0, 1920, 1080, 1080, 1080, 0);
+        assertMapping(TransformChain.parse("crop-eye:right,squish").mapFor(3840, 1080),
+            1920, 0, 1920, 1080, 1080, 1080, 0);
+    }
+
+    @Test
+    void cropAfterSquishMapsBackToTheSource() {
+        TransformChain.Mapping mapping = TransformChain.parse("squish,crop-eye:left").mapFor(2560, 1440);
+        assertMapping(mapping, 0, 0, 1280, 1440, 720, 1440, 0);
+    }
+
+    @Test
+    void cropAfterRotateTakesTheTurnedSide() {
+        // the left half of an image turned clockwise is the bottom half of the source
+        TransformChain.Mapping mapping = TransformChain.parse("rotate:90,crop-eye:left").mapFor(2560, 1440);
+        assertMapping(mapping, 0, 720, 2560, 720, 2560, 720, 1);
+        assertEquals(720, mapping.width());
+        assertEquals(2560, mapping.height());
+        assertFalse(mapping.isRowLocal(1440));
+    }
+
+    @Test
+    void maxKeepsTheAspectRatio() {
+        TransformChain.Mapping mapping = TransformChain.parse("max:1920").mapFor(2560, 1440);
+        assertMapping(mapping, 0, 0, 2560, 1440, 1920, 1080, 0);
+        TransformChain.Mapping small = TransformChain.parse("max:4000").mapFor(2560, 1440);
+        assertTrue(small.isIdentity(2560, 1440));
+        assertSame(small, small.fit(4000));
+    }
+
+    @Test
+    void fullChainComposesIntoOneMapping() {
+        TransformChain.Mapping mapping = TransformChain.parse("crop-eye:left,squish,max:500,rotate:90")
+            .mapFor(3840, 1080);
+        assertMapping(mapping, 0, 0, 1920, 1080, 500, 500, 1);
+    }
+
+    @Test
+    void rotationsAddUp() {
+        assertTrue(TransformChain.parse("rotate:90,rotate:270").mapFor(640, 480).isIdentity(640, 480));
+        assertEquals(1, TransformChain.parse("rotate:450").mapFor(640, 480).quarterTurns);
+        assertEquals(3, TransformChain.parse("rotate:-90").mapFor(640, 480).quarterTurns);
+    }
+
+    @Test
+    void scalingMapsTheWholeImage() {
+        assertMapping(TransformChain.Mapping.scaling(1440, 1440, 256, 256), 0, 0, 1440, 1440, 256, 256, 0);
+    }
+
+    @Test
+    void keyParsesBackToTheSameChain() {
+        String spec = "crop-eye:right,squish,max:1920,rotate:270";
+        TransformChain chain = TransformChain.parse(" Crop-Eye:right , squish,max:1920,rotate:-90 ");
+        assertEquals(spec, chain.key());
+        assertEquals(spec, TransformChain.parse(chain.key()).key());
+        assertTrue(TransformChain.SQUISH.isSquishOnly());
+        assertFalse(chain.isSquishOnly());
+    }
+
+    @Test
+    void invalidChainsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse("blur"));
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse("crop-eye:up"));
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse("rotate:45"));
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse("max:0"));
+        assertThrows(IllegalArgumentException.class, () -> TransformChain.parse("max:big"));
+    }
+}